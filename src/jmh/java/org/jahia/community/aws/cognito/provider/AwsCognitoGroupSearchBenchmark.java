@@ -0,0 +1,98 @@
+package org.jahia.community.aws.cognito.provider;
+
+import org.apache.commons.lang.StringUtils;
+import org.jahia.community.aws.cognito.client.AwsCognitoGroup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.services.cognitoidentityprovider.model.GroupType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a keystroke of the group picker answered by the n-gram index of the catalog with the scan of every
+ * group name and description it replaced, both returning the first page of the matching groups. Run with <code>mvn -Pjmh test-compile exec:exec</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AwsCognitoGroupSearchBenchmark {
+    private static final String[] WORDS = {"editors", "reviewers", "marketing", "sales", "support", "finance", "legal",
+            "engineering", "partners", "admins", "europe", "americas", "asia", "interns", "contractors"};
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"50000"})
+    private int groupCount;
+
+    @Param({"*ket*", "fin*", "*eng*eu*"})
+    private String pattern;
+
+    private AwsCognitoGroupCatalog catalog;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        List<AwsCognitoGroup> groups = new ArrayList<>(groupCount);
+        for (int i = 0; i < groupCount; i++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + "-" + WORDS[random.nextInt(WORDS.length)] + "-" + i;
+            String description = "Members of " + WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+            groups.add(new AwsCognitoGroup(GroupType.builder().groupName(name).description(description).build()));
+        }
+        catalog = new AwsCognitoGroupCatalog(groups, 1);
+        // the indexes are built by the first search of a catalog
+        catalog.search(pattern, true, 0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<AwsCognitoGroup> index() {
+        return catalog.search(pattern, true, 0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<AwsCognitoGroup> scan() {
+        String[] segments = StringUtils.split(pattern, "*");
+        boolean prefix = !pattern.startsWith("*");
+        List<AwsCognitoGroup> page = new ArrayList<>(PAGE_SIZE);
+        for (AwsCognitoGroup group : catalog.getGroups()) {
+            if (matches(group.getName(), segments, prefix) || matches(StringUtils.defaultString(group.getDescription()), segments, prefix)) {
+                page.add(group);
+                if (page.size() == PAGE_SIZE) {
+                    break;
+                }
+            }
+        }
+        return page;
+    }
+
+    /**
+     * @return true if the segments of the pattern appear in order in the value, the first one at its start if the
+     * pattern does not start with a wildcard
+     */
+    private static boolean matches(String value, String[] segments, boolean prefix) {
+        String lowerCaseValue = value.toLowerCase(Locale.ROOT);
+        int from = 0;
+        for (int i = 0; i < segments.length; i++) {
+            int index = lowerCaseValue.indexOf(segments[i], from);
+            if (index < 0 || (i == 0 && prefix && index > 0)) {
+                return false;
+            }
+            from = index + segments[i].length();
+        }
+        return true;
+    }
+}
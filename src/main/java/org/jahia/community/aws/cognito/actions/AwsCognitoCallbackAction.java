@@ -72,7 +72,7 @@ public class AwsCognitoCallbackAction extends Action {
                 httpServletRequest.getSession(false).invalidate();
                 // renew http session
                 HttpSession session = httpServletRequest.getSession();
-                // decode openid token
+                // decode openid token, the mappers also cache the user of the token before the redirect
                 jahiaOAuthService.extractAccessTokenAndExecuteMappers(connectorConfig, token, session.getId());
                 // cache username
                 jahiaAuthMapperService.cacheMapperResults("cognito-mapper", session.getId(), Collections.singletonMap(JahiaAuthConstants.SSO_LOGIN, new MappedProperty(null, httpServletRequest.getAttribute(JahiaAuthConstants.SSO_LOGIN))));
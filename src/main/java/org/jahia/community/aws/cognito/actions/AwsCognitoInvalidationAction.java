@@ -0,0 +1,170 @@
+package org.jahia.community.aws.cognito.actions;
+
+import org.apache.commons.lang.StringUtils;
+import org.jahia.bin.Action;
+import org.jahia.bin.ActionResult;
+import org.jahia.bin.Render;
+import org.jahia.community.aws.cognito.api.AwsCognitoConfiguration;
+import org.jahia.community.aws.cognito.provider.AwsCognitoKarafConfigurationFactory;
+import org.jahia.community.aws.cognito.provider.AwsCognitoUserGroupProvider;
+import org.jahia.services.content.JCRSessionWrapper;
+import org.jahia.services.render.RenderContext;
+import org.jahia.services.render.Resource;
+import org.jahia.services.render.URLResolver;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Receives the invalidation events sent by AWS Cognito triggers, e.g. post confirmation, group changes or user deletion,
+ * and evicts the changed principals from the caches of the providers of the user pool.
+ * <p>
+ * The body is either a list of events <code>{"userPoolId": "...", "events": [{"type": "user", "id": "..."}, {"type": "group", "id": "..."}]}</code>
+ * or the event of a Cognito Lambda trigger. It is signed with the <code>invalidationSecret</code> of the provider:
+ * the <code>X-AwsCognito-Signature</code> header holds the hex encoded HMAC-SHA256 of <code>timestamp + "." + body</code>,
+ * the <code>X-AwsCognito-Timestamp</code> header holds the timestamp in seconds. The body is limited to 64 KB.
+ */
+@Component(service = Action.class)
+public class AwsCognitoInvalidationAction extends Action {
+    private static final Logger logger = LoggerFactory.getLogger(AwsCognitoInvalidationAction.class);
+
+    private static final String NAME = "awsCognitoInvalidationAction";
+    private static final String EVENT_TYPE_USER = "user";
+    private static final String EVENT_TYPE_GROUP = "group";
+
+    @Reference
+    private AwsCognitoKarafConfigurationFactory awsCognitoKarafConfigurationFactory;
+
+    public AwsCognitoInvalidationAction() {
+        setName(NAME);
+        setRequireAuthenticatedUser(false);
+        setRequiredMethods(Render.METHOD_POST);
+    }
+
+    @Override
+    public ActionResult doExecute(HttpServletRequest httpServletRequest, RenderContext renderContext, Resource resource, JCRSessionWrapper jcrSessionWrapper, Map<String, List<String>> parameters, URLResolver urlResolver) throws Exception {
+        return new ActionResult(invalidate(httpServletRequest.getContentLength(), httpServletRequest.getInputStream(),
+                httpServletRequest.getHeader(AwsCognitoRequestSignature.TIMESTAMP_HEADER), httpServletRequest.getHeader(AwsCognitoRequestSignature.SIGNATURE_HEADER),
+                awsCognitoKarafConfigurationFactory.getUserGroupProviders()));
+    }
+
+    /**
+     * Verifies the signature of an invalidation request and queues its events in the signed providers of its user pool.
+     *
+     * @param contentLength the Content-Length header, -1 if unknown
+     * @return the HTTP status of the response
+     */
+    static int invalidate(int contentLength, InputStream inputStream, String timestamp, String signature, Collection<AwsCognitoUserGroupProvider> userGroupProviders) throws IOException {
+        if (contentLength > AwsCognitoRequestSignature.MAX_BODY_SIZE) {
+            return HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+        }
+        byte[] body = AwsCognitoRequestSignature.readBody(inputStream);
+        if (body == null) {
+            return HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+        }
+        if (body.length == 0 || StringUtils.isBlank(signature) || !AwsCognitoRequestSignature.isFresh(timestamp, System.currentTimeMillis())) {
+            return HttpServletResponse.SC_BAD_REQUEST;
+        }
+
+        // the body is only parsed once signed with the secret of a provider
+        List<AwsCognitoUserGroupProvider> signedProviders = new ArrayList<>();
+        for (AwsCognitoUserGroupProvider provider : userGroupProviders) {
+            AwsCognitoConfiguration awsCognitoConfiguration = provider.getAwsCognitoConfiguration();
+            if (awsCognitoConfiguration != null && awsCognitoConfiguration.getInvalidationSecret() != null
+                    && isSigned(awsCognitoConfiguration.getInvalidationSecret(), timestamp, body, signature)) {
+                signedProviders.add(provider);
+            }
+        }
+        if (signedProviders.isEmpty()) {
+            logger.warn("Rejected invalidation event with an invalid signature");
+            return HttpServletResponse.SC_FORBIDDEN;
+        }
+
+        Set<String> users = new HashSet<>();
+        Set<String> groups = new HashSet<>();
+        String userPoolId;
+        try {
+            JSONObject payload = new JSONObject(new String(body, StandardCharsets.UTF_8));
+            userPoolId = payload.getString("userPoolId");
+            readEvents(payload, users, groups);
+        } catch (JSONException e) {
+            logger.warn("Invalid invalidation event: {}", e.getMessage());
+            return HttpServletResponse.SC_BAD_REQUEST;
+        }
+
+        int providers = 0;
+        for (AwsCognitoUserGroupProvider provider : signedProviders) {
+            if (userPoolId.equals(provider.getAwsCognitoConfiguration().getUserPoolId())) {
+                provider.invalidate(users, groups);
+                providers++;
+            }
+        }
+        if (providers == 0) {
+            logger.warn("Rejected invalidation event of user pool {}", userPoolId);
+            return HttpServletResponse.SC_FORBIDDEN;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Invalidation of users {} and groups {} queued for {} providers", users, groups, providers);
+        }
+        return HttpServletResponse.SC_ACCEPTED;
+    }
+
+    private static void readEvents(JSONObject payload, Set<String> users, Set<String> groups) throws JSONException {
+        JSONArray events = payload.optJSONArray("events");
+        if (events == null) {
+            // Cognito Lambda trigger event
+            JSONObject userAttributes = payload.optJSONObject("request") != null ? payload.getJSONObject("request").optJSONObject("userAttributes") : null;
+            addIfNotBlank(users, payload.optString("userName"));
+            addIfNotBlank(users, userAttributes != null ? userAttributes.optString("sub") : null);
+            return;
+        }
+        for (int i = 0; i < events.length(); i++) {
+            JSONObject event = events.getJSONObject(i);
+            String type = event.getString("type");
+            if (EVENT_TYPE_USER.equals(type)) {
+                addIfNotBlank(users, event.getString("id"));
+            } else if (EVENT_TYPE_GROUP.equals(type)) {
+                addIfNotBlank(groups, event.getString("id"));
+                // a membership change names the user too
+                addIfNotBlank(users, event.optString("user"));
+            } else {
+                throw new JSONException("Unknown event type " + type);
+            }
+        }
+    }
+
+    private static void addIfNotBlank(Set<String> principals, String principal) {
+        if (StringUtils.isNotBlank(principal)) {
+            principals.add(principal);
+        }
+    }
+
+    private static boolean isSigned(String secret, String timestamp, byte[] body, String signature) {
+        try {
+            return AwsCognitoRequestSignature.isSigned(secret, timestamp, body, signature);
+        } catch (GeneralSecurityException e) {
+            logger.warn("Unable to verify the invalidation event signature");
+            if (logger.isDebugEnabled()) {
+                logger.debug("", e);
+            }
+            return false;
+        }
+    }
+}
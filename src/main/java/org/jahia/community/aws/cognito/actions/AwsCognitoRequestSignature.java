@@ -0,0 +1,80 @@
+package org.jahia.community.aws.cognito.actions;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signature of the invalidation requests: the <code>X-AwsCognito-Signature</code> header holds the hex encoded
+ * HMAC-SHA256 of <code>timestamp + "." + body</code>, the <code>X-AwsCognito-Timestamp</code> header holds the timestamp
+ * in seconds. The signature is checked on the raw body, before it is parsed.
+ */
+final class AwsCognitoRequestSignature {
+    static final String SIGNATURE_HEADER = "X-AwsCognito-Signature";
+    static final String TIMESTAMP_HEADER = "X-AwsCognito-Timestamp";
+    // an invalidation event names a few principals, a larger body is rejected without being read
+    static final int MAX_BODY_SIZE = 64 * 1024;
+    private static final long MAX_CLOCK_SKEW = TimeUnit.MINUTES.toSeconds(5);
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private AwsCognitoRequestSignature() {
+    }
+
+    /**
+     * @return the body, null if it is larger than {@link #MAX_BODY_SIZE}
+     */
+    static byte[] readBody(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            if (body.size() + read > MAX_BODY_SIZE) {
+                return null;
+            }
+            body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * @param timestamp the timestamp header, in seconds
+     * @return true if the timestamp is within 5 minutes of the current time, a replayed request is then rejected
+     */
+    static boolean isFresh(String timestamp, long currentTimeMillis) {
+        long seconds = NumberUtils.toLong(timestamp, 0);
+        return seconds > 0 && Math.abs(TimeUnit.MILLISECONDS.toSeconds(currentTimeMillis) - seconds) <= MAX_CLOCK_SKEW;
+    }
+
+    static boolean isSigned(String secret, String timestamp, byte[] body, String signature) throws GeneralSecurityException {
+        if (StringUtils.isBlank(signature)) {
+            return false;
+        }
+        return MessageDigest.isEqual(sign(secret, timestamp, body).getBytes(StandardCharsets.UTF_8),
+                signature.trim().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the hex encoded signature of the body
+     */
+    static String sign(String secret, String timestamp, byte[] body) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM));
+        mac.update((timestamp + ".").getBytes(StandardCharsets.UTF_8));
+        byte[] signature = mac.doFinal(body);
+        StringBuilder hex = new StringBuilder(signature.length * 2);
+        for (byte b : signature) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -1,19 +1,70 @@
 package org.jahia.community.aws.cognito.api;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class AwsCognitoConfiguration {
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 10;
+    private static final int DEFAULT_CACHE_SOFT_TTL = 1800;
+    private static final int DEFAULT_CACHE_HARD_TTL = 3600;
+    private static final int DEFAULT_NEGATIVE_CACHE_TTL = 60;
+    private static final int DEFAULT_PRINCIPAL_FILTER_REFRESH_INTERVAL = 3600;
+    private static final int DEFAULT_SYNC_INTERVAL = 900;
+    private static final double DEFAULT_SYNC_RATE_LIMIT = 5;
+    // Default AWS Cognito quotas of the categories, in requests per second
+    private static final double DEFAULT_RATE_LIMIT_USER_LIST = 30;
+    private static final double DEFAULT_RATE_LIMIT_USER_RESOURCE_READ = 50;
+    private static final int DEFAULT_RATE_LIMIT_TIMEOUT = 5000;
+    private static final double DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE = 50;
+    private static final int DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_DURATION = 5000;
+    private static final int DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION = 30;
+    private static final int DEFAULT_CACHE_STALE_GRACE_PERIOD = 3600;
+    private static final int DEFAULT_API_CALL_TIMEOUT = 10000;
+    private static final int DEFAULT_API_CALL_ATTEMPT_TIMEOUT = 3000;
+    private static final int DEFAULT_MAX_RETRIES = 3;
+    private static final int DEFAULT_RETRY_BASE_DELAY = 100;
+    private static final int DEFAULT_RETRY_MAX_BACKOFF = 2000;
+
     private final String targetSite;
     private final String accessKeyId;
     private final String secretAccessKey;
     private final String region;
     private final String userPoolId;
+    private final int maxConcurrentRequests;
+    private final int cacheSoftTtl;
+    private final int cacheHardTtl;
+    private final int negativeCacheTtl;
+    private final boolean principalFilterEnabled;
+    private final int principalFilterRefreshInterval;
+    private final Map<String, String> tokenClaimMapping;
+    private final boolean syncEnabled;
+    private final int syncInterval;
+    private final double syncRateLimit;
+    private final int membershipPreloadInterval;
+    private final String invalidationSecret;
+    private final double rateLimitUserList;
+    private final double rateLimitUserResourceRead;
+    private final int rateLimitTimeout;
+    private final double circuitBreakerFailureRate;
+    private final int circuitBreakerSlowCallDuration;
+    private final int circuitBreakerOpenDuration;
+    private final int cacheStaleGracePeriod;
+    private final int apiCallTimeout;
+    private final int apiCallAttemptTimeout;
+    private final int maxRetries;
+    private final int retryBaseDelay;
+    private final int retryMaxBackoff;
+    private final boolean hedgingEnabled;
+    private final List<String> userAttributes;
 
     public AwsCognitoConfiguration(Dictionary<String, ?> dictionary) {
         this(Collections.list(dictionary.keys()).stream()
@@ -27,6 +78,86 @@ public class AwsCognitoConfiguration {
         this.secretAccessKey = (String) props.get(AwsCognitoConstants.SECRET_ACCESS_KEY);
         this.userPoolId = (String) props.get(AwsCognitoConstants.USER_POOL_ID);
         this.region = userPoolId != null ? StringUtils.split(userPoolId, "_")[0] : null;
+        this.maxConcurrentRequests = Math.max(1, getInt(props, AwsCognitoConstants.MAX_CONCURRENT_REQUESTS, DEFAULT_MAX_CONCURRENT_REQUESTS));
+        this.cacheHardTtl = Math.max(1, getInt(props, AwsCognitoConstants.CACHE_HARD_TTL, DEFAULT_CACHE_HARD_TTL));
+        this.cacheSoftTtl = getInt(props, AwsCognitoConstants.CACHE_SOFT_TTL, Math.min(DEFAULT_CACHE_SOFT_TTL, cacheHardTtl / 2));
+        this.negativeCacheTtl = getInt(props, AwsCognitoConstants.NEGATIVE_CACHE_TTL, DEFAULT_NEGATIVE_CACHE_TTL);
+        this.principalFilterEnabled = getBoolean(props, AwsCognitoConstants.PRINCIPAL_FILTER_ENABLED);
+        this.principalFilterRefreshInterval = Math.max(60, getInt(props, AwsCognitoConstants.PRINCIPAL_FILTER_REFRESH_INTERVAL, DEFAULT_PRINCIPAL_FILTER_REFRESH_INTERVAL));
+        this.tokenClaimMapping = getMap(props, AwsCognitoConstants.TOKEN_CLAIM_MAPPING);
+        this.syncEnabled = getBoolean(props, AwsCognitoConstants.SYNC_ENABLED);
+        this.syncInterval = Math.max(60, getInt(props, AwsCognitoConstants.SYNC_INTERVAL, DEFAULT_SYNC_INTERVAL));
+        this.syncRateLimit = getDouble(props, AwsCognitoConstants.SYNC_RATE_LIMIT, DEFAULT_SYNC_RATE_LIMIT);
+        int preloadInterval = getInt(props, AwsCognitoConstants.MEMBERSHIP_PRELOAD_INTERVAL, 0);
+        this.membershipPreloadInterval = preloadInterval > 0 ? Math.max(60, preloadInterval) : 0;
+        this.invalidationSecret = StringUtils.trimToNull((String) props.get(AwsCognitoConstants.INVALIDATION_SECRET));
+        this.rateLimitUserList = getDouble(props, AwsCognitoConstants.RATE_LIMIT_USER_LIST, DEFAULT_RATE_LIMIT_USER_LIST);
+        this.rateLimitUserResourceRead = getDouble(props, AwsCognitoConstants.RATE_LIMIT_USER_RESOURCE_READ, DEFAULT_RATE_LIMIT_USER_RESOURCE_READ);
+        this.rateLimitTimeout = Math.max(0, getInt(props, AwsCognitoConstants.RATE_LIMIT_TIMEOUT, DEFAULT_RATE_LIMIT_TIMEOUT));
+        this.circuitBreakerFailureRate = Math.min(100, Math.max(0, getDouble(props, AwsCognitoConstants.CIRCUIT_BREAKER_FAILURE_RATE, DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE)));
+        this.circuitBreakerSlowCallDuration = Math.max(1, getInt(props, AwsCognitoConstants.CIRCUIT_BREAKER_SLOW_CALL_DURATION, DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_DURATION));
+        this.circuitBreakerOpenDuration = Math.max(1, getInt(props, AwsCognitoConstants.CIRCUIT_BREAKER_OPEN_DURATION, DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION));
+        this.cacheStaleGracePeriod = Math.max(0, getInt(props, AwsCognitoConstants.CACHE_STALE_GRACE_PERIOD, DEFAULT_CACHE_STALE_GRACE_PERIOD));
+        this.apiCallTimeout = Math.max(1, getInt(props, AwsCognitoConstants.API_CALL_TIMEOUT, DEFAULT_API_CALL_TIMEOUT));
+        this.apiCallAttemptTimeout = Math.max(1, Math.min(apiCallTimeout, getInt(props, AwsCognitoConstants.API_CALL_ATTEMPT_TIMEOUT, DEFAULT_API_CALL_ATTEMPT_TIMEOUT)));
+        this.maxRetries = Math.max(0, getInt(props, AwsCognitoConstants.MAX_RETRIES, DEFAULT_MAX_RETRIES));
+        this.retryBaseDelay = Math.max(1, getInt(props, AwsCognitoConstants.RETRY_BASE_DELAY, DEFAULT_RETRY_BASE_DELAY));
+        this.retryMaxBackoff = Math.max(retryBaseDelay, getInt(props, AwsCognitoConstants.RETRY_MAX_BACKOFF, DEFAULT_RETRY_MAX_BACKOFF));
+        this.hedgingEnabled = getBoolean(props, AwsCognitoConstants.HEDGING_ENABLED);
+        this.userAttributes = getUserAttributes(props);
+    }
+
+    /**
+     * Reads the comma separated attributes of the cached user profiles. The sub and the email identify the users and are
+     * always read, the AWS username is not an attribute of the user pool.
+     */
+    private static List<String> getUserAttributes(Map<String, ?> props) {
+        Object value = props.get(AwsCognitoConstants.USER_ATTRIBUTES);
+        if (value == null || StringUtils.isBlank(value.toString())) {
+            return Collections.emptyList();
+        }
+        List<String> attributes = new ArrayList<>();
+        attributes.add(AwsCognitoConstants.SSO_LOGIN);
+        attributes.add(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL);
+        for (String attribute : StringUtils.split(value.toString(), ',')) {
+            String name = StringUtils.trim(attribute);
+            if (StringUtils.isNotEmpty(name) && !attributes.contains(name) && !AwsCognitoConstants.AWS_USERNAME.equals(name)) {
+                attributes.add(name);
+            }
+        }
+        return Collections.unmodifiableList(attributes);
+    }
+
+    private static double getDouble(Map<String, ?> props, String key, double defaultValue) {
+        Object value = props.get(key);
+        return value == null ? defaultValue : NumberUtils.toDouble(StringUtils.trim(value.toString()), defaultValue);
+    }
+
+    /**
+     * Reads a property formatted as <code>key1=value1,key2=value2</code>.
+     */
+    private static Map<String, String> getMap(Map<String, ?> props, String key) {
+        Object value = props.get(key);
+        if (value == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> map = new HashMap<>();
+        for (String entry : StringUtils.split(value.toString(), ',')) {
+            if (StringUtils.contains(entry, '=')) {
+                map.put(StringUtils.trim(StringUtils.substringBefore(entry, "=")), StringUtils.trim(StringUtils.substringAfter(entry, "=")));
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    private static boolean getBoolean(Map<String, ?> props, String key) {
+        Object value = props.get(key);
+        return value != null && Boolean.parseBoolean(StringUtils.trim(value.toString()));
+    }
+
+    private static int getInt(Map<String, ?> props, String key, int defaultValue) {
+        Object value = props.get(key);
+        return value == null ? defaultValue : NumberUtils.toInt(StringUtils.trim(value.toString()), defaultValue);
     }
 
     public String getTargetSite() {
@@ -48,4 +179,196 @@ public class AwsCognitoConfiguration {
     public String getUserPoolId() {
         return userPoolId;
     }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /**
+     * @return the age in seconds after which a cached entry is reloaded in the background
+     */
+    public int getCacheSoftTtl() {
+        return cacheSoftTtl;
+    }
+
+    /**
+     * @return the age in seconds after which a cached entry expires and is loaded by the caller
+     */
+    public int getCacheHardTtl() {
+        return cacheHardTtl;
+    }
+
+    public boolean isRefreshAheadEnabled() {
+        return cacheSoftTtl > 0 && cacheSoftTtl < cacheHardTtl;
+    }
+
+    /**
+     * @return the time in seconds during which a user or group not found in AWS Cognito is not searched again, 0 to disable
+     */
+    public int getNegativeCacheTtl() {
+        return negativeCacheTtl;
+    }
+
+    public boolean isPrincipalFilterEnabled() {
+        return principalFilterEnabled;
+    }
+
+    /**
+     * @return the interval in seconds between two full scans of the user pool building the principal filter
+     */
+    public int getPrincipalFilterRefreshInterval() {
+        return principalFilterRefreshInterval;
+    }
+
+    /**
+     * @return the ID token claims renamed when the user is cached at login, a claim mapped to an empty name is ignored
+     */
+    public Map<String, String> getTokenClaimMapping() {
+        return tokenClaimMapping;
+    }
+
+    /**
+     * @return true if the users, groups and memberships of the user pool are periodically synchronized in memory
+     */
+    public boolean isSyncEnabled() {
+        return syncEnabled;
+    }
+
+    /**
+     * @return the interval in seconds between two synchronizations
+     */
+    public int getSyncInterval() {
+        return syncInterval;
+    }
+
+    /**
+     * @return the maximum number of AWS Cognito requests per second sent by a synchronization, 0 for no limit
+     */
+    public double getSyncRateLimit() {
+        return syncRateLimit;
+    }
+
+    /**
+     * @return the interval in seconds between two preloads of the group memberships in the cache, 0 if disabled
+     */
+    public int getMembershipPreloadInterval() {
+        return membershipPreloadInterval;
+    }
+
+    /**
+     * @return the secret signing the invalidation events of the user pool, null if the events are not accepted
+     */
+    public String getInvalidationSecret() {
+        return invalidationSecret;
+    }
+
+    /**
+     * @return the maximum number of ListUsers and ListUsersInGroup requests per second, 0 for no limit
+     */
+    public double getRateLimitUserList() {
+        return rateLimitUserList;
+    }
+
+    /**
+     * @return the maximum number of AdminListGroupsForUser, GetGroup and ListGroups requests per second, 0 for no limit
+     */
+    public double getRateLimitUserResourceRead() {
+        return rateLimitUserResourceRead;
+    }
+
+    /**
+     * @return the maximum time in milliseconds a request waits for the rate limit before failing
+     */
+    public int getRateLimitTimeout() {
+        return rateLimitTimeout;
+    }
+
+    /**
+     * @return the percentage of failed or slow requests opening the circuit breaker of the user pool, 0 to disable it
+     */
+    public double getCircuitBreakerFailureRate() {
+        return circuitBreakerFailureRate;
+    }
+
+    /**
+     * @return the duration in milliseconds from which a request counts as slow for the circuit breaker
+     */
+    public int getCircuitBreakerSlowCallDuration() {
+        return circuitBreakerSlowCallDuration;
+    }
+
+    /**
+     * @return the time in seconds during which the requests fail fast once the circuit breaker opened
+     */
+    public int getCircuitBreakerOpenDuration() {
+        return circuitBreakerOpenDuration;
+    }
+
+    /**
+     * @return the time in seconds during which an expired entry is kept and served while AWS Cognito is unavailable
+     */
+    public int getCacheStaleGracePeriod() {
+        return cacheStaleGracePeriod;
+    }
+
+    /**
+     * @return the maximum time in milliseconds of a request to AWS Cognito, retries included
+     */
+    public int getApiCallTimeout() {
+        return apiCallTimeout;
+    }
+
+    /**
+     * @return the maximum time in milliseconds of a single attempt of a request to AWS Cognito
+     */
+    public int getApiCallAttemptTimeout() {
+        return apiCallAttemptTimeout;
+    }
+
+    /**
+     * @return the number of retries of a failed request, throttled requests are not retried
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @return the base delay in milliseconds of the jittered exponential backoff between two retries
+     */
+    public int getRetryBaseDelay() {
+        return retryBaseDelay;
+    }
+
+    /**
+     * @return the maximum delay in milliseconds between two retries
+     */
+    public int getRetryMaxBackoff() {
+        return retryMaxBackoff;
+    }
+
+    /**
+     * @return true if a second request is sent when a single user or group read takes longer than the p95 latency
+     */
+    public boolean isHedgingEnabled() {
+        return hedgingEnabled;
+    }
+
+    /**
+     * @return the attributes read from AWS Cognito for the cached user profiles, empty to read every attribute
+     */
+    public List<String> getUserAttributes() {
+        return userAttributes;
+    }
+
+    /**
+     * @return true if both configurations read the same principals, i.e. only tuning properties differ
+     */
+    public boolean hasSamePrincipals(AwsCognitoConfiguration other) {
+        return other != null
+                && StringUtils.equals(targetSite, other.targetSite)
+                && StringUtils.equals(userPoolId, other.userPoolId)
+                && StringUtils.equals(accessKeyId, other.accessKeyId)
+                && StringUtils.equals(secretAccessKey, other.secretAccessKey)
+                && userAttributes.equals(other.userAttributes);
+    }
 }
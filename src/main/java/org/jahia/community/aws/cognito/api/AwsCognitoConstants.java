@@ -18,6 +18,9 @@ import javax.jcr.RepositoryException;
 import javax.servlet.http.HttpServletRequest;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public final class AwsCognitoConstants {
     private AwsCognitoConstants() {
@@ -33,11 +36,48 @@ public final class AwsCognitoConstants {
     public static final String USER_PROPERTY_EMAIL = "j:email";
     public static final String SSO_LOGIN = "sub";
     public static final String AWS_USERNAME = "custom:username";
+    public static final String COGNITO_USERNAME_CLAIM = "cognito:username";
+    public static final String COGNITO_GROUPS_CLAIM = "cognito:groups";
 
     public static final String TARGET_SITE = "target.site";
     public static final String ACCESS_KEY_ID = "accessKeyId";
     public static final String SECRET_ACCESS_KEY = "secretAccessKey";
     public static final String USER_POOL_ID = "userPoolId";
+    public static final String MAX_CONCURRENT_REQUESTS = "maxConcurrentRequests";
+    public static final String CACHE_SOFT_TTL = "cacheSoftTtl";
+    public static final String CACHE_HARD_TTL = "cacheHardTtl";
+    public static final String NEGATIVE_CACHE_TTL = "negativeCacheTtl";
+    public static final String PRINCIPAL_FILTER_ENABLED = "principalFilterEnabled";
+    public static final String PRINCIPAL_FILTER_REFRESH_INTERVAL = "principalFilterRefreshInterval";
+    public static final String TOKEN_CLAIM_MAPPING = "tokenClaimMapping";
+    public static final String SYNC_ENABLED = "syncEnabled";
+    public static final String SYNC_INTERVAL = "syncInterval";
+    public static final String SYNC_RATE_LIMIT = "syncRateLimit";
+    public static final String MEMBERSHIP_PRELOAD_INTERVAL = "membershipPreloadInterval";
+    public static final String INVALIDATION_SECRET = "invalidationSecret";
+    public static final String RATE_LIMIT_USER_LIST = "rateLimitUserList";
+    public static final String RATE_LIMIT_USER_RESOURCE_READ = "rateLimitUserResourceRead";
+    public static final String RATE_LIMIT_TIMEOUT = "rateLimitTimeout";
+    public static final String CIRCUIT_BREAKER_FAILURE_RATE = "circuitBreakerFailureRate";
+    public static final String CIRCUIT_BREAKER_SLOW_CALL_DURATION = "circuitBreakerSlowCallDuration";
+    public static final String CIRCUIT_BREAKER_OPEN_DURATION = "circuitBreakerOpenDuration";
+    public static final String CACHE_STALE_GRACE_PERIOD = "cacheStaleGracePeriod";
+    public static final String API_CALL_TIMEOUT = "apiCallTimeout";
+    public static final String API_CALL_ATTEMPT_TIMEOUT = "apiCallAttemptTimeout";
+    public static final String MAX_RETRIES = "maxRetries";
+    public static final String RETRY_BASE_DELAY = "retryBaseDelay";
+    public static final String RETRY_MAX_BACKOFF = "retryMaxBackoff";
+    public static final String HEDGING_ENABLED = "hedgingEnabled";
+    public static final String USER_ATTRIBUTES = "userAttributes";
+    // Optional provider properties, kept when the provider is edited from the server settings
+    public static final List<String> OPTIONAL_PROPERTIES = Collections.unmodifiableList(Arrays.asList(
+            MAX_CONCURRENT_REQUESTS, CACHE_SOFT_TTL, CACHE_HARD_TTL, NEGATIVE_CACHE_TTL,
+            PRINCIPAL_FILTER_ENABLED, PRINCIPAL_FILTER_REFRESH_INTERVAL, TOKEN_CLAIM_MAPPING,
+            SYNC_ENABLED, SYNC_INTERVAL, SYNC_RATE_LIMIT, MEMBERSHIP_PRELOAD_INTERVAL,
+            INVALIDATION_SECRET, RATE_LIMIT_USER_LIST, RATE_LIMIT_USER_RESOURCE_READ, RATE_LIMIT_TIMEOUT,
+            CIRCUIT_BREAKER_FAILURE_RATE, CIRCUIT_BREAKER_SLOW_CALL_DURATION, CIRCUIT_BREAKER_OPEN_DURATION, CACHE_STALE_GRACE_PERIOD,
+            API_CALL_TIMEOUT, API_CALL_ATTEMPT_TIMEOUT, MAX_RETRIES, RETRY_BASE_DELAY, RETRY_MAX_BACKOFF, HEDGING_ENABLED,
+            USER_ATTRIBUTES));
     public static final String ENDPOINT = "endpoint";
     public static final String LOGOUT_AWS = "logoutAWS";
     public static final String LOGOUT_CALLBACK_URL = "logoutCallbackUrl";
@@ -0,0 +1,159 @@
+package org.jahia.community.aws.cognito.client;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker of a user pool. The circuit opens when the rate of failed or slow calls among the last calls
+ * reaches the threshold: the calls then fail fast until the open duration elapsed, then a single probe call
+ * closes the circuit again or reopens it.
+ */
+public class AwsCognitoCircuitBreaker implements AwsCognitoCircuitBreakerMBean {
+    private static final int WINDOW_SIZE = 20;
+    private static final int MIN_CALLS = 10;
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final double failureRateThreshold;
+    private final long slowCallDuration;
+    private final long openDuration;
+    private final boolean[] failures = new boolean[WINDOW_SIZE];
+    private final boolean[] slowCalls = new boolean[WINDOW_SIZE];
+    private int index;
+    private int calls;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probing;
+    private long openedCount;
+
+    /**
+     * @param failureRateThreshold percentage of failed or slow calls opening the circuit, 0 to disable the circuit breaker
+     * @param slowCallDuration     duration in milliseconds from which a call is slow
+     * @param openDuration         duration in seconds during which the calls fail fast
+     */
+    public AwsCognitoCircuitBreaker(double failureRateThreshold, long slowCallDuration, long openDuration) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallDuration = slowCallDuration;
+        this.openDuration = TimeUnit.SECONDS.toMillis(openDuration);
+    }
+
+    /**
+     * @return false if the call must not be sent
+     */
+    public synchronized boolean tryAcquire() {
+        if (failureRateThreshold <= 0 || state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openDuration) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (probing) {
+            return false;
+        }
+        probing = true;
+        return true;
+    }
+
+    /**
+     * Releases a call allowed by {@link #tryAcquire()} but not sent.
+     */
+    public synchronized void cancel() {
+        if (state == State.HALF_OPEN) {
+            probing = false;
+        }
+    }
+
+    /**
+     * @param failure  true if AWS Cognito did not answer, or answered with a server error
+     * @param duration the duration of the call in milliseconds
+     */
+    public synchronized void onResult(boolean failure, long duration) {
+        if (failureRateThreshold <= 0) {
+            return;
+        }
+        boolean slow = duration >= slowCallDuration;
+        if (state == State.HALF_OPEN) {
+            probing = false;
+            if (failure || slow) {
+                open();
+            } else {
+                close();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            // call sent before the circuit opened
+            return;
+        }
+        failures[index] = failure;
+        slowCalls[index] = slow;
+        index = (index + 1) % WINDOW_SIZE;
+        calls = Math.min(WINDOW_SIZE, calls + 1);
+        if (calls >= MIN_CALLS && (rate(failures) >= failureRateThreshold || rate(slowCalls) >= failureRateThreshold)) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        openedCount++;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        Arrays.fill(failures, false);
+        Arrays.fill(slowCalls, false);
+        index = 0;
+        calls = 0;
+    }
+
+    private double rate(boolean[] outcomes) {
+        if (calls == 0) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = 0; i < calls; i++) {
+            if (outcomes[i]) {
+                count++;
+            }
+        }
+        return 100.0 * count / calls;
+    }
+
+    public synchronized boolean isOpen() {
+        return state == State.OPEN;
+    }
+
+    @Override
+    public synchronized String getState() {
+        return state.name();
+    }
+
+    @Override
+    public synchronized double getFailureRate() {
+        return rate(failures);
+    }
+
+    @Override
+    public synchronized double getSlowCallRate() {
+        return rate(slowCalls);
+    }
+
+    @Override
+    public synchronized long getOpenedCount() {
+        return openedCount;
+    }
+
+    @Override
+    public synchronized void reset() {
+        probing = false;
+        close();
+    }
+}
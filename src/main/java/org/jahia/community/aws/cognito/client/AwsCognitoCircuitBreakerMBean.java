@@ -0,0 +1,31 @@
+package org.jahia.community.aws.cognito.client;
+
+/**
+ * JMX view of the circuit breaker of a user pool.
+ */
+public interface AwsCognitoCircuitBreakerMBean {
+    /**
+     * @return CLOSED, OPEN or HALF_OPEN
+     */
+    String getState();
+
+    /**
+     * @return the percentage of failed calls in the window of the last calls
+     */
+    double getFailureRate();
+
+    /**
+     * @return the percentage of slow calls in the window of the last calls
+     */
+    double getSlowCallRate();
+
+    /**
+     * @return the number of times the circuit opened
+     */
+    long getOpenedCount();
+
+    /**
+     * Closes the circuit and forgets the recorded calls.
+     */
+    void reset();
+}
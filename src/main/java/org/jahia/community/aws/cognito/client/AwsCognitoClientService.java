@@ -1,242 +1,869 @@
 package org.jahia.community.aws.cognito.client;
 
 import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
 import org.jahia.community.aws.cognito.api.AwsCognitoConfiguration;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.helpers.MessageFormatter;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.core.retry.backoff.FullJitterBackoffStrategy;
+import software.amazon.awssdk.core.retry.conditions.RetryCondition;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.cognitoidentityprovider.CognitoIdentityProviderClient;
+import software.amazon.awssdk.services.cognitoidentityprovider.CognitoIdentityProviderAsyncClient;
+import software.amazon.awssdk.services.cognitoidentityprovider.CognitoIdentityProviderAsyncClientBuilder;
 import software.amazon.awssdk.services.cognitoidentityprovider.model.AdminListGroupsForUserRequest;
 import software.amazon.awssdk.services.cognitoidentityprovider.model.AdminListGroupsForUserResponse;
 import software.amazon.awssdk.services.cognitoidentityprovider.model.GetGroupRequest;
-import software.amazon.awssdk.services.cognitoidentityprovider.model.GetGroupResponse;
-import software.amazon.awssdk.services.cognitoidentityprovider.model.GroupType;
+import software.amazon.awssdk.services.cognitoidentityprovider.model.InvalidParameterException;
 import software.amazon.awssdk.services.cognitoidentityprovider.model.ListGroupsRequest;
 import software.amazon.awssdk.services.cognitoidentityprovider.model.ListGroupsResponse;
 import software.amazon.awssdk.services.cognitoidentityprovider.model.ListUsersInGroupRequest;
 import software.amazon.awssdk.services.cognitoidentityprovider.model.ListUsersInGroupResponse;
 import software.amazon.awssdk.services.cognitoidentityprovider.model.ListUsersRequest;
 import software.amazon.awssdk.services.cognitoidentityprovider.model.ListUsersResponse;
-import software.amazon.awssdk.services.cognitoidentityprovider.model.UserType;
+import software.amazon.awssdk.services.cognitoidentityprovider.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.cognitoidentityprovider.model.TooManyRequestsException;
+import software.amazon.awssdk.services.cognitoidentityprovider.model.UserNotFoundException;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * Reads the users and groups of the AWS Cognito user pools. The requests are sent by an asynchronous client
+ * sharing one Netty event loop for every user pool: the asynchronous methods do not hold a thread while waiting
+ * for AWS Cognito, the synchronous methods wait for their result.
+ */
 @Component(service = AwsCognitoClientService.class)
 public class AwsCognitoClientService {
     private static final Logger logger = LoggerFactory.getLogger(AwsCognitoClientService.class);
 
-    private final ReentrantLock lock;
+    private static final Duration CONNECTION_MAX_IDLE_TIME = Duration.ofMinutes(5);
+    private static final int LIST_USERS_PAGE_SIZE = 60;
+    private static final double HEDGING_PERCENTILE = 0.95;
+    private static final long MIN_HEDGING_DELAY = 20;
+    private static final String CIRCUIT_BREAKER_OBJECT_NAME = "org.jahia.community.aws.cognito:type=CircuitBreaker,userPool=%s,id=%x";
+    private static final String RATE_LIMITER_OBJECT_NAME = "org.jahia.community.aws.cognito:type=RateLimiter,userPool=%s,category=%s,id=%x";
+
+    // Client of each user pool, built with the tuning of the last registered configuration
+    private final ConcurrentMap<ClientKey, PooledClient> clients;
+    // Clients replaced by a client with another tuning, closed when the last configuration using them is unregistered
+    private final List<PooledClient> replacedClients;
+    private final SdkEventLoopGroup eventLoopGroup;
+    private final Function<AwsCognitoConfiguration, CognitoIdentityProviderAsyncClient> clientFactory;
+    // Delays the requests waiting for the rate limit and sends the hedged reads
+    private final ScheduledThreadPoolExecutor scheduler;
+    // Number of cluster nodes sharing the rate limits of the user pools
+    private volatile int clusterSize = 1;
 
     public AwsCognitoClientService() {
-        lock = new ReentrantLock();
+        this(null);
     }
 
-    private static CognitoIdentityProviderClient getCognitoIdentityProviderClient(AwsCognitoConfiguration awsCognitoConfiguration) {
-        return CognitoIdentityProviderClient.builder()
-                .region(Region.of(awsCognitoConfiguration.getRegion()))
-                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(awsCognitoConfiguration.getAccessKeyId(), awsCognitoConfiguration.getSecretAccessKey())))
-                .build();
+    /**
+     * @param clientFactory builds the SDK client of a configuration, null for a client sending its requests to AWS Cognito
+     */
+    AwsCognitoClientService(Function<AwsCognitoConfiguration, CognitoIdentityProviderAsyncClient> clientFactory) {
+        clients = new ConcurrentHashMap<>();
+        replacedClients = new ArrayList<>();
+        eventLoopGroup = SdkEventLoopGroup.builder().build();
+        this.clientFactory = clientFactory != null ? clientFactory : awsCognitoConfiguration -> clientBuilder(awsCognitoConfiguration, eventLoopGroup).build();
+        scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "aws-cognito-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
     }
 
-    public Optional<AwsCognitoUser> getUser(AwsCognitoConfiguration awsCognitoConfiguration, String filterKey, String filterValue) {
-        lock.lock();
-        ListUsersRequest request = ListUsersRequest.builder()
-                .userPoolId(awsCognitoConfiguration.getUserPoolId())
-                .filter(filterKey + "=\"" + filterValue + "\"")
-                .build();
-        try (CognitoIdentityProviderClient cognitoIdentityProviderClient = getCognitoIdentityProviderClient(awsCognitoConfiguration)) {
-            ListUsersResponse response = cognitoIdentityProviderClient.listUsers(request);
-            if (logger.isDebugEnabled()) {
-                logger.debug(response.toString());
-            }
-            if (!response.hasUsers() || CollectionUtils.isEmpty(response.users())) {
-                return Optional.empty();
+    @Deactivate
+    void onDeactivate() {
+        scheduler.shutdownNow();
+        clients.values().forEach(PooledClient::close);
+        clients.clear();
+        synchronized (replacedClients) {
+            replacedClients.forEach(PooledClient::close);
+            replacedClients.clear();
+        }
+        eventLoopGroup.eventLoopGroup().shutdownGracefully();
+    }
+
+    /**
+     * Registers a provider configuration: the SDK client for its region, credentials and user pool is built once
+     * and shared by every call until the last configuration using it is unregistered. A configuration changing
+     * the tuning of the client, e.g. its timeouts or rate limits, replaces the client: the previous client is closed
+     * when the last configuration registered with it is unregistered.
+     */
+    public void register(AwsCognitoConfiguration awsCognitoConfiguration) {
+        ClientTuning tuning = new ClientTuning(awsCognitoConfiguration);
+        PooledClient registeredClient = clients.compute(new ClientKey(awsCognitoConfiguration), (key, pooledClient) -> {
+            if (pooledClient != null && pooledClient.tuning.equals(tuning)) {
+                pooledClient.references++;
+                return pooledClient;
             }
-            return Optional.of(new AwsCognitoUser(response.users().get(0)));
-        } catch (Exception e) {
-            logger.warn("Unable to get user searching {}:{}", filterKey, filterValue);
-            if (logger.isDebugEnabled()) {
-                logger.debug("", e);
+            if (pooledClient != null) {
+                synchronized (replacedClients) {
+                    replacedClients.add(pooledClient);
+                }
             }
-            return Optional.empty();
-        } finally {
-            lock.unlock();
-        }
+            PooledClient client = new PooledClient(awsCognitoConfiguration, clientFactory.apply(awsCognitoConfiguration));
+            client.references++;
+            return client;
+        });
+        // read after the client is visible, a concurrent change of the cluster size also reaches it
+        registeredClient.setShare(1.0 / clusterSize);
     }
 
-    public Optional<List<AwsCognitoUser>> getUsers(AwsCognitoConfiguration awsCognitoConfiguration, int limit) {
-        lock.lock();
-        List<UserType> users = new ArrayList<>();
-        ListUsersRequest.Builder request = ListUsersRequest.builder()
-                .userPoolId(awsCognitoConfiguration.getUserPoolId())
-                .limit(limit);
-        try (CognitoIdentityProviderClient cognitoIdentityProviderClient = getCognitoIdentityProviderClient(awsCognitoConfiguration)) {
-            ListUsersResponse response = cognitoIdentityProviderClient.listUsers(request.build());
-            if (logger.isDebugEnabled()) {
-                logger.debug(response.toString());
+    public void unregister(AwsCognitoConfiguration awsCognitoConfiguration) {
+        ClientKey clientKey = new ClientKey(awsCognitoConfiguration);
+        ClientTuning tuning = new ClientTuning(awsCognitoConfiguration);
+        boolean[] released = new boolean[1];
+        clients.computeIfPresent(clientKey, (key, pooledClient) -> {
+            if (!pooledClient.tuning.equals(tuning)) {
+                return pooledClient;
             }
-            if (response.hasUsers() && !CollectionUtils.isEmpty(response.users())) {
-                users.addAll(response.users());
+            released[0] = true;
+            pooledClient.references--;
+            if (pooledClient.references > 0) {
+                return pooledClient;
             }
-        } catch (Exception e) {
-            logger.warn("Unable to get users");
-            if (logger.isDebugEnabled()) {
-                logger.debug("", e);
+            pooledClient.close();
+            return null;
+        });
+        if (released[0]) {
+            return;
+        }
+        // the configuration was registered with a client replaced since
+        PooledClient closedClient = null;
+        synchronized (replacedClients) {
+            for (Iterator<PooledClient> iterator = replacedClients.iterator(); iterator.hasNext(); ) {
+                PooledClient pooledClient = iterator.next();
+                if (pooledClient.key.equals(clientKey) && pooledClient.tuning.equals(tuning)) {
+                    pooledClient.references--;
+                    if (pooledClient.references == 0) {
+                        iterator.remove();
+                        closedClient = pooledClient;
+                    }
+                    break;
+                }
             }
-        } finally {
-            lock.unlock();
         }
-        if (users.isEmpty()) {
-            return Optional.empty();
+        if (closedClient != null) {
+            closedClient.close();
         }
-        return Optional.of(users.stream().map(AwsCognitoUser::new).collect(Collectors.toList()));
     }
 
-    private void getGroupMembersRecursively(AwsCognitoConfiguration awsCognitoConfiguration, String groupName, List<UserType> users, String nextToken) {
-        lock.lock();
-        ListUsersInGroupRequest.Builder request = ListUsersInGroupRequest.builder()
-                .userPoolId(awsCognitoConfiguration.getUserPoolId())
-                .groupName(groupName);
-        if (nextToken != null) {
-            request.nextToken(nextToken);
+    /**
+     * Splits the rate limits of every user pool between the cluster nodes: the AWS Cognito quotas are shared
+     * by the whole account, each node sends at most its share of the configured rates.
+     *
+     * @param clusterSize the number of running cluster nodes, 1 outside of a cluster
+     */
+    public void setClusterSize(int clusterSize) {
+        int size = Math.max(1, clusterSize);
+        if (this.clusterSize == size) {
+            return;
         }
-        try (CognitoIdentityProviderClient cognitoIdentityProviderClient = getCognitoIdentityProviderClient(awsCognitoConfiguration)) {
-            ListUsersInGroupResponse response = cognitoIdentityProviderClient.listUsersInGroup(request.build());
-            if (logger.isDebugEnabled()) {
-                logger.debug(response.toString());
+        this.clusterSize = size;
+        logger.info("AWS Cognito rate limits are shared by {} cluster nodes", size);
+        clients.values().forEach(pooledClient -> pooledClient.setShare(1.0 / size));
+        synchronized (replacedClients) {
+            replacedClients.forEach(pooledClient -> pooledClient.setShare(1.0 / size));
+        }
+    }
+
+    /**
+     * @return the client of the user pool, null if no configuration of the user pool is registered
+     */
+    private PooledClient getPooledClient(AwsCognitoConfiguration awsCognitoConfiguration) {
+        return clients.get(new ClientKey(awsCognitoConfiguration));
+    }
+
+    /**
+     * Sends one SDK request under the rate limit of its quota category. The number of requests in flight for a user pool
+     * is bounded by its HTTP client, the request fails fast while the circuit breaker of the user pool is open.
+     *
+     * @return the response, completed with an {@link AwsCognitoUnavailableException} if the circuit breaker is open,
+     * or the request is throttled, or cannot be sent under the rate limit in time
+     */
+    private <T> CompletableFuture<T> execute(AwsCognitoConfiguration awsCognitoConfiguration, AwsCognitoQuotaCategory category, Function<CognitoIdentityProviderAsyncClient, CompletableFuture<T>> call) {
+        PooledClient pooledClient = getPooledClient(awsCognitoConfiguration);
+        if (pooledClient == null) {
+            return AwsCognitoFutures.failed(new AwsCognitoUnavailableException("AWS Cognito user pool " + awsCognitoConfiguration.getUserPoolId() + " is not registered"));
+        }
+        AwsCognitoCircuitBreaker circuitBreaker = pooledClient.circuitBreaker;
+        if (!circuitBreaker.tryAcquire()) {
+            return AwsCognitoFutures.failed(new AwsCognitoUnavailableException("AWS Cognito circuit breaker of user pool " + awsCognitoConfiguration.getUserPoolId() + " is open"));
+        }
+        long wait = pooledClient.rateLimiters.get(category).reserve(awsCognitoConfiguration.getRateLimitTimeout());
+        if (wait < 0) {
+            circuitBreaker.cancel();
+            return AwsCognitoFutures.failed(new AwsCognitoThrottlingException("AWS Cognito " + category + " rate limit reached"));
+        }
+        if (wait == 0) {
+            return send(awsCognitoConfiguration, pooledClient, category, call);
+        }
+        return delay(wait).whenComplete((v, e) -> {
+            if (e != null) {
+                circuitBreaker.cancel();
+            }
+        }).thenCompose(v -> send(awsCognitoConfiguration, pooledClient, category, call));
+    }
+
+    private <T> CompletableFuture<T> send(AwsCognitoConfiguration awsCognitoConfiguration, PooledClient pooledClient, AwsCognitoQuotaCategory category, Function<CognitoIdentityProviderAsyncClient, CompletableFuture<T>> call) {
+        AwsCognitoRateLimiter rateLimiter = pooledClient.rateLimiters.get(category);
+        AwsCognitoCircuitBreaker circuitBreaker = pooledClient.circuitBreaker;
+        long start = System.currentTimeMillis();
+        CompletableFuture<T> response;
+        try {
+            response = call.apply(pooledClient.client);
+        } catch (RuntimeException e) {
+            response = AwsCognitoFutures.failed(e);
+        }
+        return response.handle((result, error) -> {
+            long duration = System.currentTimeMillis() - start;
+            Throwable cause = AwsCognitoFutures.unwrap(error);
+            boolean wasOpen = circuitBreaker.isOpen();
+            circuitBreaker.onResult(cause instanceof SdkException && isDegraded((SdkException) cause), duration);
+            if (!wasOpen && circuitBreaker.isOpen()) {
+                logger.warn("AWS Cognito circuit breaker of user pool {} opened for {}s", awsCognitoConfiguration.getUserPoolId(), awsCognitoConfiguration.getCircuitBreakerOpenDuration());
             }
-            if (response.hasUsers() && !CollectionUtils.isEmpty(response.users())) {
-                users.addAll(response.users());
-                nextToken = response.nextToken();
-                if (nextToken != null) {
-                    getGroupMembersRecursively(awsCognitoConfiguration, groupName, users, nextToken);
+            if (cause == null) {
+                rateLimiter.onSuccess();
+                pooledClient.latencyTrackers.get(category).record(duration);
+                return result;
+            }
+            if (cause instanceof SdkException && isThrottling((SdkException) cause)) {
+                if (rateLimiter.onThrottled()) {
+                    logger.warn("AWS Cognito throttled a {} request, rate lowered to {} requests per second", category, rateLimiter.getRate());
                 }
+                throw new AwsCognitoThrottlingException("AWS Cognito throttled a " + category + " request", cause);
             }
-        } catch (Exception e) {
-            logger.warn("Unable to get group {} members", groupName);
-            if (logger.isDebugEnabled()) {
-                logger.debug("", e);
+            if (cause instanceof SdkException && isDegraded((SdkException) cause)) {
+                // a failure of AWS Cognito does not tell whether the principal exists
+                throw new AwsCognitoUnavailableException("AWS Cognito failed a " + category + " request", cause);
+            }
+            throw AwsCognitoFutures.propagate(cause);
+        });
+    }
+
+    /**
+     * Sends an idempotent read, and sends it a second time if it did not complete within the p95 latency of its
+     * quota category: the first answer wins, the slower request completes in the background.
+     */
+    private <T> CompletableFuture<T> executeHedged(AwsCognitoConfiguration awsCognitoConfiguration, AwsCognitoQuotaCategory category, Function<CognitoIdentityProviderAsyncClient, CompletableFuture<T>> call) {
+        PooledClient pooledClient = getPooledClient(awsCognitoConfiguration);
+        long hedgingDelay = awsCognitoConfiguration.isHedgingEnabled() && pooledClient != null ? pooledClient.latencyTrackers.get(category).getPercentile(HEDGING_PERCENTILE) : -1;
+        if (hedgingDelay < 0) {
+            return execute(awsCognitoConfiguration, category, call);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        BiConsumer<T, Throwable> completion = (value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(AwsCognitoFutures.unwrap(error));
             }
-        } finally {
-            lock.unlock();
+        };
+        execute(awsCognitoConfiguration, category, call).whenComplete(completion);
+        try {
+            scheduler.schedule(() -> {
+                // no hedge if the first request has completed or failed in the meantime
+                if (!result.isDone() && pending.getAndIncrement() > 0) {
+                    logger.debug("Hedging a {} request after {} ms", category, hedgingDelay);
+                    execute(awsCognitoConfiguration, category, call).whenComplete(completion);
+                }
+            }, Math.max(MIN_HEDGING_DELAY, hedgingDelay), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Scheduler is stopped, the {} request is not hedged", category);
+        }
+        return result;
+    }
+
+    /**
+     * @return a future completed after the delay
+     */
+    private CompletableFuture<Void> delay(long nanos) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            scheduler.schedule(() -> future.complete(null), nanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new IllegalStateException("AWS Cognito client service is stopped", e));
         }
+        return future;
     }
 
-    public Optional<List<AwsCognitoUser>> getGroupMembers(AwsCognitoConfiguration awsCognitoConfiguration, String groupName) {
-        List<UserType> users = new ArrayList<>();
-        getGroupMembersRecursively(awsCognitoConfiguration, groupName, users, null);
-        if (users.isEmpty()) {
+    /**
+     * Delays the request to respect the pacer of a long running task.
+     *
+     * @param pacer may be null
+     */
+    private <T> CompletableFuture<T> paced(AwsCognitoPacer pacer, Supplier<CompletableFuture<T>> request) {
+        long wait = pacer != null ? pacer.reserve() : 0;
+        return wait == 0 ? request.get() : delay(wait).thenCompose(v -> request.get());
+    }
+
+    /**
+     * Requests the pages one after the other, each page is handed to the consumer before the next one is requested.
+     *
+     * @param nextToken returns the token of the next page, null after the last page
+     */
+    private static <R> CompletableFuture<Void> walkPages(String token, Function<String, CompletableFuture<R>> page, Function<R, String> nextToken, Consumer<R> consumer) {
+        return page.apply(token).thenCompose(response -> {
+            consumer.accept(response);
+            String next = nextToken.apply(response);
+            return next == null ? CompletableFuture.<Void>completedFuture(null) : walkPages(next, page, nextToken, consumer);
+        });
+    }
+
+    /**
+     * Answers a read rejected because its principal does not exist with a missing result.
+     *
+     * @throws AwsCognitoUnavailableException for any other error, which is not a missing principal:
+     *                                        the caller must not cache it as unknown
+     */
+    private static <T> Optional<T> orEmpty(Throwable error, String message, Object... arguments) {
+        Throwable cause = AwsCognitoFutures.unwrap(error);
+        if (cause instanceof ResourceNotFoundException || cause instanceof UserNotFoundException) {
+            if (logger.isDebugEnabled()) {
+                logger.debug(MessageFormatter.arrayFormat(message, arguments).getMessage() + ": not found");
+            }
             return Optional.empty();
         }
-        return Optional.of(users.stream().map(AwsCognitoUser::new).collect(Collectors.toList()));
+        if (cause instanceof AwsCognitoUnavailableException) {
+            throw (AwsCognitoUnavailableException) cause;
+        }
+        logger.warn(message, arguments);
+        if (logger.isDebugEnabled()) {
+            logger.debug("", cause);
+        }
+        throw new AwsCognitoUnavailableException(MessageFormatter.arrayFormat(message, arguments).getMessage(), cause);
+    }
+
+    /**
+     * @return the value as a quoted string of a ListUsers filter, its backslashes and quotes escaped
+     */
+    private static String quote(String value) {
+        return "\"" + StringUtils.replaceEach(value, new String[]{"\\", "\""}, new String[]{"\\\\", "\\\""}) + "\"";
+    }
+
+    /**
+     * @return the attributes returned by ListUsers for the cached user profiles, null for every attribute
+     */
+    private static List<String> getAttributesToGet(AwsCognitoConfiguration awsCognitoConfiguration) {
+        return awsCognitoConfiguration.getUserAttributes().isEmpty() ? null : awsCognitoConfiguration.getUserAttributes();
+    }
+
+    /**
+     * @return true if AWS Cognito did not answer or failed, as opposed to rejecting the request
+     */
+    private static boolean isDegraded(SdkException e) {
+        return e instanceof SdkClientException || (e instanceof AwsServiceException && ((AwsServiceException) e).statusCode() >= 500);
+    }
+
+    private static boolean isThrottling(SdkException e) {
+        return e instanceof TooManyRequestsException || (e instanceof AwsServiceException && ((AwsServiceException) e).isThrottlingException());
+    }
+
+    /**
+     * @return the current rate limit of each quota category for the user pool, in requests per second, 0 for no limit
+     */
+    Map<AwsCognitoQuotaCategory, Double> getRates(AwsCognitoConfiguration awsCognitoConfiguration) {
+        Map<AwsCognitoQuotaCategory, Double> rates = new EnumMap<>(AwsCognitoQuotaCategory.class);
+        PooledClient pooledClient = getPooledClient(awsCognitoConfiguration);
+        if (pooledClient != null) {
+            pooledClient.rateLimiters.forEach((category, rateLimiter) -> rates.put(category, rateLimiter.getRate()));
+        }
+        return rates;
+    }
+
+    public Optional<AwsCognitoUser> getUser(AwsCognitoConfiguration awsCognitoConfiguration, String filterKey, String filterValue) {
+        return AwsCognitoFutures.join(getUserAsync(awsCognitoConfiguration, filterKey, filterValue));
+    }
+
+    public CompletableFuture<Optional<AwsCognitoUser>> getUserAsync(AwsCognitoConfiguration awsCognitoConfiguration, String filterKey, String filterValue) {
+        ListUsersRequest request = ListUsersRequest.builder()
+                .userPoolId(awsCognitoConfiguration.getUserPoolId())
+                .filter(filterKey + " = " + quote(filterValue))
+                .attributesToGet(getAttributesToGet(awsCognitoConfiguration))
+                .build();
+        return executeHedged(awsCognitoConfiguration, AwsCognitoQuotaCategory.USER_LIST, client -> client.listUsers(request))
+                .thenApply(response -> {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(response.toString());
+                    }
+                    if (!response.hasUsers() || CollectionUtils.isEmpty(response.users())) {
+                        return Optional.<AwsCognitoUser>empty();
+                    }
+                    return Optional.of(new AwsCognitoUser(response.users().get(0)));
+                })
+                .exceptionally(e -> orEmpty(e, "Unable to get user searching {}:{}", filterKey, filterValue));
+    }
+
+    public Optional<List<AwsCognitoUser>> getUsers(AwsCognitoConfiguration awsCognitoConfiguration, int limit) {
+        return AwsCognitoFutures.join(getUsersAsync(awsCognitoConfiguration, limit));
+    }
+
+    public CompletableFuture<Optional<List<AwsCognitoUser>>> getUsersAsync(AwsCognitoConfiguration awsCognitoConfiguration, int limit) {
+        ListUsersRequest request = ListUsersRequest.builder()
+                .userPoolId(awsCognitoConfiguration.getUserPoolId())
+                .limit(limit)
+                .attributesToGet(getAttributesToGet(awsCognitoConfiguration))
+                .build();
+        return execute(awsCognitoConfiguration, AwsCognitoQuotaCategory.USER_LIST, client -> client.listUsers(request))
+                .thenApply(response -> {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(response.toString());
+                    }
+                    if (!response.hasUsers() || CollectionUtils.isEmpty(response.users())) {
+                        return Optional.<List<AwsCognitoUser>>empty();
+                    }
+                    return Optional.of(response.users().stream().map(AwsCognitoUser::new).collect(Collectors.toList()));
+                })
+                .exceptionally(e -> orEmpty(e, "Unable to get users"));
+    }
+
+    public Optional<AwsCognitoUserPage> getUsersByPrefix(AwsCognitoConfiguration awsCognitoConfiguration, String attribute, String prefix, String paginationToken) {
+        return AwsCognitoFutures.join(getUsersByPrefixAsync(awsCognitoConfiguration, attribute, prefix, paginationToken));
+    }
+
+    /**
+     * Reads one page of the users whose attribute starts with a prefix, filtered by AWS Cognito with the ListUsers
+     * prefix operator <code>^=</code>.
+     *
+     * @param attribute       a standard attribute searchable by ListUsers, e.g. username, email or family_name
+     * @param prefix          the prefix of the attribute, empty to list every user
+     * @param paginationToken the token of the page, null for the first page
+     * @return the page, empty if AWS Cognito rejected the pagination token
+     */
+    public CompletableFuture<Optional<AwsCognitoUserPage>> getUsersByPrefixAsync(AwsCognitoConfiguration awsCognitoConfiguration, String attribute, String prefix, String paginationToken) {
+        ListUsersRequest.Builder request = ListUsersRequest.builder()
+                .userPoolId(awsCognitoConfiguration.getUserPoolId())
+                .limit(LIST_USERS_PAGE_SIZE)
+                .attributesToGet(getAttributesToGet(awsCognitoConfiguration))
+                .paginationToken(paginationToken);
+        if (StringUtils.isNotEmpty(prefix)) {
+            request.filter(attribute + " ^= " + quote(prefix));
+        }
+        return execute(awsCognitoConfiguration, AwsCognitoQuotaCategory.USER_LIST, client -> client.listUsers(request.build()))
+                .thenApply(response -> Optional.of(new AwsCognitoUserPage(response.users().stream().map(AwsCognitoUser::new).collect(Collectors.toList()),
+                        response.paginationToken())))
+                .exceptionally(e -> {
+                    if (paginationToken != null && AwsCognitoFutures.unwrap(e) instanceof InvalidParameterException) {
+                        // the pagination token has expired
+                        logger.debug("Pagination token of the users by {} starting with {} rejected", attribute, prefix);
+                        return Optional.empty();
+                    }
+                    return orEmpty(e, "Unable to search users by {} starting with {}", attribute, prefix);
+                });
     }
 
     public Optional<AwsCognitoGroup> getGroup(AwsCognitoConfiguration awsCognitoConfiguration, String groupName) {
-        lock.lock();
+        return AwsCognitoFutures.join(getGroupAsync(awsCognitoConfiguration, groupName));
+    }
+
+    public CompletableFuture<Optional<AwsCognitoGroup>> getGroupAsync(AwsCognitoConfiguration awsCognitoConfiguration, String groupName) {
         GetGroupRequest request = GetGroupRequest.builder()
                 .userPoolId(awsCognitoConfiguration.getUserPoolId())
                 .groupName(groupName)
                 .build();
-        try (CognitoIdentityProviderClient cognitoIdentityProviderClient = getCognitoIdentityProviderClient(awsCognitoConfiguration)) {
-            GetGroupResponse response = cognitoIdentityProviderClient.getGroup(request);
-            if (logger.isDebugEnabled()) {
-                logger.debug(response.toString());
-            }
-            if (response.group() == null) {
-                return Optional.empty();
+        return executeHedged(awsCognitoConfiguration, AwsCognitoQuotaCategory.USER_RESOURCE_READ, client -> client.getGroup(request))
+                .thenApply(response -> {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(response.toString());
+                    }
+                    if (response.group() == null) {
+                        return Optional.<AwsCognitoGroup>empty();
+                    }
+                    return Optional.of(new AwsCognitoGroup(response.group()));
+                })
+                .exceptionally(e -> orEmpty(e, "Unable to get group: {}", groupName));
+    }
+
+    public Optional<List<AwsCognitoGroup>> getGroups(AwsCognitoConfiguration awsCognitoConfiguration) {
+        return AwsCognitoFutures.join(getGroupsAsync(awsCognitoConfiguration));
+    }
+
+    public CompletableFuture<Optional<List<AwsCognitoGroup>>> getGroupsAsync(AwsCognitoConfiguration awsCognitoConfiguration) {
+        List<AwsCognitoGroup> groups = new ArrayList<>();
+        return walkPages(null, nextToken -> execute(awsCognitoConfiguration, AwsCognitoQuotaCategory.USER_RESOURCE_READ, client -> client.listGroups(ListGroupsRequest.builder()
+                        .userPoolId(awsCognitoConfiguration.getUserPoolId())
+                        .nextToken(nextToken)
+                        .build())),
+                response -> response.hasGroups() && !response.groups().isEmpty() ? response.nextToken() : null,
+                response -> {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(response.toString());
+                    }
+                    if (response.hasGroups()) {
+                        response.groups().forEach(group -> groups.add(new AwsCognitoGroup(group)));
+                    }
+                })
+                .thenApply(v -> groups.isEmpty() ? Optional.<List<AwsCognitoGroup>>empty() : Optional.of(groups))
+                .exceptionally(e -> orEmpty(e, "Unable to get groups"));
+    }
+
+    /**
+     * Pages through every user of the user pool.
+     *
+     * @throws RuntimeException if a page cannot be read, the scan is then incomplete
+     */
+    public void scanUsers(AwsCognitoConfiguration awsCognitoConfiguration, Consumer<AwsCognitoUser> consumer) {
+        scanUsers(awsCognitoConfiguration, consumer, null);
+    }
+
+    /**
+     * @param pacer spaces out the page requests, may be null
+     */
+    public void scanUsers(AwsCognitoConfiguration awsCognitoConfiguration, Consumer<AwsCognitoUser> consumer, AwsCognitoPacer pacer) {
+        streamUsers(awsCognitoConfiguration, pacer).forEach(consumer);
+    }
+
+    /**
+     * Lazily pages through every user of the user pool, a page is requested when the users of the previous one are consumed.
+     *
+     * @param pacer spaces out the page requests, may be null
+     * @return the users, the stream throws a RuntimeException if a page cannot be read
+     */
+    public Stream<AwsCognitoUser> streamUsers(AwsCognitoConfiguration awsCognitoConfiguration, AwsCognitoPacer pacer) {
+        return new AwsCognitoPageIterator<ListUsersResponse, AwsCognitoUser>(paginationToken -> {
+            pace(pacer);
+            return AwsCognitoFutures.join(execute(awsCognitoConfiguration, AwsCognitoQuotaCategory.USER_LIST, client -> client.listUsers(ListUsersRequest.builder()
+                    .userPoolId(awsCognitoConfiguration.getUserPoolId())
+                    .limit(LIST_USERS_PAGE_SIZE)
+                    .attributesToGet(getAttributesToGet(awsCognitoConfiguration))
+                    .paginationToken(paginationToken)
+                    .build())));
+        }, response -> response.users().stream().map(AwsCognitoUser::new).iterator(), ListUsersResponse::paginationToken).stream();
+    }
+
+    /**
+     * Pages through every group of the user pool.
+     *
+     * @throws RuntimeException if a page cannot be read, the scan is then incomplete
+     */
+    public void scanGroups(AwsCognitoConfiguration awsCognitoConfiguration, Consumer<AwsCognitoGroup> consumer) {
+        scanGroups(awsCognitoConfiguration, consumer, null);
+    }
+
+    /**
+     * @param pacer spaces out the page requests, may be null
+     */
+    public void scanGroups(AwsCognitoConfiguration awsCognitoConfiguration, Consumer<AwsCognitoGroup> consumer, AwsCognitoPacer pacer) {
+        streamGroups(awsCognitoConfiguration, pacer).forEach(consumer);
+    }
+
+    /**
+     * Lazily pages through every group of the user pool.
+     *
+     * @param pacer spaces out the page requests, may be null
+     * @return the groups, the stream throws a RuntimeException if a page cannot be read
+     */
+    public Stream<AwsCognitoGroup> streamGroups(AwsCognitoConfiguration awsCognitoConfiguration, AwsCognitoPacer pacer) {
+        return new AwsCognitoPageIterator<ListGroupsResponse, AwsCognitoGroup>(nextToken -> {
+            pace(pacer);
+            return AwsCognitoFutures.join(execute(awsCognitoConfiguration, AwsCognitoQuotaCategory.USER_RESOURCE_READ, client -> client.listGroups(ListGroupsRequest.builder()
+                    .userPoolId(awsCognitoConfiguration.getUserPoolId())
+                    .nextToken(nextToken)
+                    .build())));
+        }, response -> response.groups().stream().map(AwsCognitoGroup::new).iterator(), ListGroupsResponse::nextToken).stream();
+    }
+
+    /**
+     * Lazily pages through the members of a group, keeping only their sub and AWS username.
+     *
+     * @return the members, the stream throws a RuntimeException if a page cannot be read
+     */
+    public Stream<AwsCognitoUser> streamGroupMembers(AwsCognitoConfiguration awsCognitoConfiguration, String groupName) {
+        return new AwsCognitoPageIterator<ListUsersInGroupResponse, AwsCognitoUser>(nextToken ->
+                AwsCognitoFutures.join(execute(awsCognitoConfiguration, AwsCognitoQuotaCategory.USER_LIST, client -> client.listUsersInGroup(ListUsersInGroupRequest.builder()
+                        .userPoolId(awsCognitoConfiguration.getUserPoolId())
+                        .groupName(groupName)
+                        .nextToken(nextToken)
+                        .build()))),
+                response -> response.users().stream().map(user -> new AwsCognitoUser(user, AwsCognitoUser.MEMBERSHIP_ATTRIBUTES)).iterator(), ListUsersInGroupResponse::nextToken).stream();
+    }
+
+    /**
+     * Lazily pages through the groups of a user.
+     *
+     * @param username the AWS username of the user
+     * @return the groups, the stream throws a RuntimeException if a page cannot be read
+     */
+    public Stream<AwsCognitoGroup> streamMembership(AwsCognitoConfiguration awsCognitoConfiguration, String username) {
+        return new AwsCognitoPageIterator<AdminListGroupsForUserResponse, AwsCognitoGroup>(nextToken ->
+                AwsCognitoFutures.join(execute(awsCognitoConfiguration, AwsCognitoQuotaCategory.USER_RESOURCE_READ, client -> client.adminListGroupsForUser(AdminListGroupsForUserRequest.builder()
+                        .userPoolId(awsCognitoConfiguration.getUserPoolId())
+                        .username(username)
+                        .nextToken(nextToken)
+                        .build()))),
+                response -> response.groups().stream().map(AwsCognitoGroup::new).iterator(), AdminListGroupsForUserResponse::nextToken).stream();
+    }
+
+    private static void pace(AwsCognitoPacer pacer) {
+        if (pacer != null) {
+            pacer.acquire();
+        }
+    }
+
+    /**
+     * Pages through every member of a group without holding a thread between the pages.
+     * ListUsersInGroup returns every attribute of the members, they are filtered once read.
+     *
+     * @param consumer       receives the members of a page before the next page is requested
+     * @param pacer          spaces out the page requests, may be null
+     * @param attributeNames the attributes kept, e.g. {@link AwsCognitoUser#MEMBERSHIP_ATTRIBUTES}, empty to keep every attribute
+     */
+    public CompletableFuture<Void> scanGroupMembersAsync(AwsCognitoConfiguration awsCognitoConfiguration, String groupName, Consumer<AwsCognitoUser> consumer, AwsCognitoPacer pacer,
+                                                         Collection<String> attributeNames) {
+        return walkPages(null, nextToken -> paced(pacer, () -> execute(awsCognitoConfiguration, AwsCognitoQuotaCategory.USER_LIST, client -> client.listUsersInGroup(ListUsersInGroupRequest.builder()
+                        .userPoolId(awsCognitoConfiguration.getUserPoolId())
+                        .groupName(groupName)
+                        .nextToken(nextToken)
+                        .build()))),
+                ListUsersInGroupResponse::nextToken,
+                response -> {
+                    if (response.hasUsers()) {
+                        response.users().forEach(user -> consumer.accept(new AwsCognitoUser(user, attributeNames)));
+                    }
+                });
+    }
+
+    /**
+     * @return the builder of the SDK client of a configuration, its HTTP client sending at most
+     * {@link AwsCognitoConfiguration#getMaxConcurrentRequests()} requests at a time
+     */
+    static CognitoIdentityProviderAsyncClientBuilder clientBuilder(AwsCognitoConfiguration awsCognitoConfiguration, SdkEventLoopGroup eventLoopGroup) {
+        return CognitoIdentityProviderAsyncClient.builder()
+                .region(Region.of(awsCognitoConfiguration.getRegion()))
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(awsCognitoConfiguration.getAccessKeyId(), awsCognitoConfiguration.getSecretAccessKey())))
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                        .eventLoopGroup(eventLoopGroup)
+                        .maxConcurrency(awsCognitoConfiguration.getMaxConcurrentRequests())
+                        .connectionMaxIdleTime(CONNECTION_MAX_IDLE_TIME))
+                .overrideConfiguration(ClientOverrideConfiguration.builder()
+                        .apiCallTimeout(Duration.ofMillis(awsCognitoConfiguration.getApiCallTimeout()))
+                        .apiCallAttemptTimeout(Duration.ofMillis(awsCognitoConfiguration.getApiCallAttemptTimeout()))
+                        .retryPolicy(RetryPolicy.builder()
+                                .numRetries(awsCognitoConfiguration.getMaxRetries())
+                                .backoffStrategy(FullJitterBackoffStrategy.builder()
+                                        .baseDelay(Duration.ofMillis(awsCognitoConfiguration.getRetryBaseDelay()))
+                                        .maxBackoffTime(Duration.ofMillis(awsCognitoConfiguration.getRetryMaxBackoff()))
+                                        .build())
+                                // throttled requests are not retried, the rate limiter slows down instead
+                                .retryCondition(context -> !isThrottling(context.exception()) && RetryCondition.defaultRetryCondition().shouldRetry(context))
+                                .build())
+                        .build());
+    }
+
+    private static final class PooledClient {
+        private final ClientKey key;
+        private final ClientTuning tuning;
+        private final CognitoIdentityProviderAsyncClient client;
+        private final Map<AwsCognitoQuotaCategory, AwsCognitoRateLimiter> rateLimiters;
+        private final Map<AwsCognitoQuotaCategory, AwsCognitoLatencyTracker> latencyTrackers;
+        private final AwsCognitoCircuitBreaker circuitBreaker;
+        private ObjectName circuitBreakerName;
+        private final List<ObjectName> rateLimiterNames = new ArrayList<>();
+        private int references;
+
+        private PooledClient(AwsCognitoConfiguration awsCognitoConfiguration, CognitoIdentityProviderAsyncClient client) {
+            key = new ClientKey(awsCognitoConfiguration);
+            tuning = new ClientTuning(awsCognitoConfiguration);
+            this.client = client;
+            rateLimiters = new EnumMap<>(AwsCognitoQuotaCategory.class);
+            rateLimiters.put(AwsCognitoQuotaCategory.USER_LIST, new AwsCognitoRateLimiter(awsCognitoConfiguration.getRateLimitUserList()));
+            rateLimiters.put(AwsCognitoQuotaCategory.USER_RESOURCE_READ, new AwsCognitoRateLimiter(awsCognitoConfiguration.getRateLimitUserResourceRead()));
+            latencyTrackers = new EnumMap<>(AwsCognitoQuotaCategory.class);
+            for (AwsCognitoQuotaCategory category : AwsCognitoQuotaCategory.values()) {
+                latencyTrackers.put(category, new AwsCognitoLatencyTracker());
             }
-            return Optional.of(new AwsCognitoGroup(response.group()));
-        } catch (Exception e) {
-            logger.warn("Unable to get group: {}", groupName);
-            if (logger.isDebugEnabled()) {
-                logger.debug("", e);
+            circuitBreaker = new AwsCognitoCircuitBreaker(awsCognitoConfiguration.getCircuitBreakerFailureRate(),
+                    awsCognitoConfiguration.getCircuitBreakerSlowCallDuration(), awsCognitoConfiguration.getCircuitBreakerOpenDuration());
+            try {
+                circuitBreakerName = new ObjectName(String.format(CIRCUIT_BREAKER_OBJECT_NAME,
+                        ObjectName.quote(awsCognitoConfiguration.getUserPoolId()), System.identityHashCode(this)));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(circuitBreaker, circuitBreakerName);
+            } catch (JMException e) {
+                circuitBreakerName = null;
+                logger.warn("Unable to register the AWS Cognito circuit breaker MBean");
+                if (logger.isDebugEnabled()) {
+                    logger.debug("", e);
+                }
             }
-            return Optional.empty();
-        } finally {
-            lock.unlock();
+            rateLimiters.forEach((category, rateLimiter) -> {
+                try {
+                    ObjectName rateLimiterName = new ObjectName(String.format(RATE_LIMITER_OBJECT_NAME,
+                            ObjectName.quote(awsCognitoConfiguration.getUserPoolId()), category, System.identityHashCode(this)));
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(rateLimiter, rateLimiterName);
+                    rateLimiterNames.add(rateLimiterName);
+                } catch (JMException e) {
+                    logger.warn("Unable to register the AWS Cognito rate limiter MBean");
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("", e);
+                    }
+                }
+            });
         }
-    }
 
-    private void getGroupsRecursively(AwsCognitoConfiguration awsCognitoConfiguration, List<GroupType> groups, String nextToken) {
-        lock.lock();
-        ListGroupsRequest.Builder requestBuilder = ListGroupsRequest.builder().userPoolId(awsCognitoConfiguration.getUserPoolId());
-        if (nextToken != null) {
-            requestBuilder.nextToken(nextToken);
+        private void setShare(double share) {
+            rateLimiters.values().forEach(rateLimiter -> rateLimiter.setShare(share));
         }
-        try (CognitoIdentityProviderClient cognitoIdentityProviderClient = getCognitoIdentityProviderClient(awsCognitoConfiguration)) {
-            ListGroupsResponse response = cognitoIdentityProviderClient.listGroups(requestBuilder.build());
-            if (logger.isDebugEnabled()) {
-                logger.debug(response.toString());
+
+        private void close() {
+            if (circuitBreakerName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(circuitBreakerName);
+                } catch (JMException e) {
+                    logger.warn("Unable to unregister the AWS Cognito circuit breaker MBean");
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("", e);
+                    }
+                }
             }
-            if (response.hasGroups() && !CollectionUtils.isEmpty(response.groups())) {
-                groups.addAll(response.groups());
-                nextToken = response.nextToken();
-                if (nextToken != null) {
-                    getGroupsRecursively(awsCognitoConfiguration, groups, nextToken);
+            for (ObjectName rateLimiterName : rateLimiterNames) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(rateLimiterName);
+                } catch (JMException e) {
+                    logger.warn("Unable to unregister the AWS Cognito rate limiter MBean");
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("", e);
+                    }
                 }
             }
-        } catch (Exception e) {
-            logger.warn("Unable to get groups");
-            if (logger.isDebugEnabled()) {
-                logger.debug("", e);
+            try {
+                client.close();
+            } catch (Exception e) {
+                logger.warn("Unable to close AWS Cognito client");
+                if (logger.isDebugEnabled()) {
+                    logger.debug("", e);
+                }
             }
-        } finally {
-            lock.unlock();
         }
     }
 
-    public Optional<List<AwsCognitoGroup>> getGroups(AwsCognitoConfiguration awsCognitoConfiguration) {
-        List<GroupType> groups = new ArrayList<>();
-        getGroupsRecursively(awsCognitoConfiguration, groups, null);
-        if (groups.isEmpty()) {
-            return Optional.empty();
+
+    private static final class ClientKey {
+        private final String region;
+        private final String accessKeyId;
+        private final String secretAccessKey;
+        private final String userPoolId;
+
+        private ClientKey(AwsCognitoConfiguration awsCognitoConfiguration) {
+            region = awsCognitoConfiguration.getRegion();
+            accessKeyId = awsCognitoConfiguration.getAccessKeyId();
+            secretAccessKey = awsCognitoConfiguration.getSecretAccessKey();
+            userPoolId = awsCognitoConfiguration.getUserPoolId();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            ClientKey clientKey = (ClientKey) o;
+            return Objects.equals(region, clientKey.region) && Objects.equals(accessKeyId, clientKey.accessKeyId)
+                    && Objects.equals(secretAccessKey, clientKey.secretAccessKey) && Objects.equals(userPoolId, clientKey.userPoolId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(region, accessKeyId, secretAccessKey, userPoolId);
         }
-        return Optional.of(groups.stream().map(AwsCognitoGroup::new).collect(Collectors.toList()));
     }
 
-    private void getMembershipRecursively(AwsCognitoConfiguration awsCognitoConfiguration, String username, List<GroupType> groups, String nextToken) {
-        lock.lock();
-        AdminListGroupsForUserRequest.Builder request = AdminListGroupsForUserRequest.builder()
-                .userPoolId(awsCognitoConfiguration.getUserPoolId())
-                .username(username);
-        if (nextToken != null) {
-            request.nextToken(nextToken);
+    /**
+     * Properties the client of a user pool is built with.
+     */
+    private static final class ClientTuning {
+        private final int maxConcurrentRequests;
+        private final double rateLimitUserList;
+        private final double rateLimitUserResourceRead;
+        private final double circuitBreakerFailureRate;
+        private final int circuitBreakerSlowCallDuration;
+        private final int circuitBreakerOpenDuration;
+        private final int apiCallTimeout;
+        private final int apiCallAttemptTimeout;
+        private final int maxRetries;
+        private final int retryBaseDelay;
+        private final int retryMaxBackoff;
+
+        private ClientTuning(AwsCognitoConfiguration awsCognitoConfiguration) {
+            maxConcurrentRequests = awsCognitoConfiguration.getMaxConcurrentRequests();
+            rateLimitUserList = awsCognitoConfiguration.getRateLimitUserList();
+            rateLimitUserResourceRead = awsCognitoConfiguration.getRateLimitUserResourceRead();
+            circuitBreakerFailureRate = awsCognitoConfiguration.getCircuitBreakerFailureRate();
+            circuitBreakerSlowCallDuration = awsCognitoConfiguration.getCircuitBreakerSlowCallDuration();
+            circuitBreakerOpenDuration = awsCognitoConfiguration.getCircuitBreakerOpenDuration();
+            apiCallTimeout = awsCognitoConfiguration.getApiCallTimeout();
+            apiCallAttemptTimeout = awsCognitoConfiguration.getApiCallAttemptTimeout();
+            maxRetries = awsCognitoConfiguration.getMaxRetries();
+            retryBaseDelay = awsCognitoConfiguration.getRetryBaseDelay();
+            retryMaxBackoff = awsCognitoConfiguration.getRetryMaxBackoff();
         }
-        try (CognitoIdentityProviderClient cognitoIdentityProviderClient = getCognitoIdentityProviderClient(awsCognitoConfiguration)) {
-            AdminListGroupsForUserResponse response = cognitoIdentityProviderClient.adminListGroupsForUser(request.build());
-            if (logger.isDebugEnabled()) {
-                logger.debug(response.toString());
-            }
-            if (response.hasGroups() && !CollectionUtils.isEmpty(response.groups())) {
-                groups.addAll(response.groups());
-                nextToken = response.nextToken();
-                if (nextToken != null) {
-                    getMembershipRecursively(awsCognitoConfiguration, username, groups, nextToken);
-                }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
             }
-        } catch (Exception e) {
-            logger.warn("Unable to get membership for user: {}", username);
-            if (logger.isDebugEnabled()) {
-                logger.debug("", e);
+            if (o == null || getClass() != o.getClass()) {
+                return false;
             }
-        } finally {
-            lock.unlock();
+            ClientTuning clientTuning = (ClientTuning) o;
+            return maxConcurrentRequests == clientTuning.maxConcurrentRequests
+                    && Double.compare(rateLimitUserList, clientTuning.rateLimitUserList) == 0
+                    && Double.compare(rateLimitUserResourceRead, clientTuning.rateLimitUserResourceRead) == 0
+                    && Double.compare(circuitBreakerFailureRate, clientTuning.circuitBreakerFailureRate) == 0
+                    && circuitBreakerSlowCallDuration == clientTuning.circuitBreakerSlowCallDuration
+                    && circuitBreakerOpenDuration == clientTuning.circuitBreakerOpenDuration
+                    && apiCallTimeout == clientTuning.apiCallTimeout && apiCallAttemptTimeout == clientTuning.apiCallAttemptTimeout
+                    && maxRetries == clientTuning.maxRetries && retryBaseDelay == clientTuning.retryBaseDelay
+                    && retryMaxBackoff == clientTuning.retryMaxBackoff;
         }
-    }
 
-    public Optional<List<AwsCognitoGroup>> getMembership(AwsCognitoConfiguration awsCognitoConfiguration, String username) {
-        List<GroupType> groups = new ArrayList<>();
-        getMembershipRecursively(awsCognitoConfiguration, username, groups, null);
-        if (groups.isEmpty()) {
-            return Optional.empty();
+        @Override
+        public int hashCode() {
+            return Objects.hash(maxConcurrentRequests, rateLimitUserList, rateLimitUserResourceRead,
+                    circuitBreakerFailureRate, circuitBreakerSlowCallDuration, circuitBreakerOpenDuration,
+                    apiCallTimeout, apiCallAttemptTimeout, maxRetries, retryBaseDelay, retryMaxBackoff);
         }
-        return Optional.of(groups.stream().map(AwsCognitoGroup::new).collect(Collectors.toList()));
     }
 }
@@ -0,0 +1,59 @@
+package org.jahia.community.aws.cognito.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Helpers bridging the asynchronous AWS Cognito calls and their synchronous callers.
+ */
+public final class AwsCognitoFutures {
+    private AwsCognitoFutures() {
+    }
+
+    public static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    /**
+     * Runs a synchronous supplier in the calling thread, its exception completes the returned future.
+     */
+    public static <T> Supplier<CompletableFuture<T>> supplyNow(Supplier<T> supplier) {
+        return () -> {
+            try {
+                return CompletableFuture.completedFuture(supplier.get());
+            } catch (RuntimeException e) {
+                return failed(e);
+            }
+        };
+    }
+
+    /**
+     * @return the exception thrown by the asynchronous call, without the wrappers added by the futures
+     */
+    public static Throwable unwrap(Throwable e) {
+        Throwable cause = e;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    public static RuntimeException propagate(Throwable cause) {
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+    }
+
+    /**
+     * Waits for the result of an asynchronous call, and throws its exception as is.
+     */
+    public static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw propagate(unwrap(e));
+        }
+    }
+}
@@ -12,17 +12,35 @@ public class AwsCognitoGroup implements Serializable {
     private static final long serialVersionUID = 4349942162870561387L;
 
     private final String name;
+    private final String description;
     private JahiaGroupImpl jahiaGroup;
+    private final long lastModifiedDate;
     private List<String> members;
 
     public AwsCognitoGroup(GroupType group) {
         name = group.groupName();
+        description = group.description();
+        lastModifiedDate = group.lastModifiedDate() != null ? group.lastModifiedDate().toEpochMilli() : 0;
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * @return the description of the group in AWS Cognito, null if it has none
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return the last modification date of the group in AWS Cognito in milliseconds, 0 if unknown
+     */
+    public long getLastModifiedDate() {
+        return lastModifiedDate;
+    }
+
     public JahiaGroupImpl getJahiaGroup() {
         return jahiaGroup;
     }
@@ -30,6 +48,9 @@ public class AwsCognitoGroup implements Serializable {
     public String cacheGroup(String siteKey) {
         Properties properties = new Properties();
         properties.put(Constants.JCR_TITLE, name);
+        if (description != null) {
+            properties.put(Constants.JCR_DESCRIPTION, description);
+        }
         jahiaGroup = new JahiaGroupImpl(name, name, siteKey, properties);
         return name;
     }
@@ -0,0 +1,40 @@
+package org.jahia.community.aws.cognito.client;
+
+import java.util.Arrays;
+
+/**
+ * Latencies of the last requests of a quota category, giving the delay after which a read is hedged.
+ */
+public class AwsCognitoLatencyTracker {
+    private static final int WINDOW_SIZE = 100;
+    private static final int MIN_SAMPLES = 20;
+
+    private final long[] latencies = new long[WINDOW_SIZE];
+    private int index;
+    private int samples;
+
+    /**
+     * @param latency the duration of a request in milliseconds
+     */
+    public synchronized void record(long latency) {
+        latencies[index] = latency;
+        index = (index + 1) % WINDOW_SIZE;
+        samples = Math.min(WINDOW_SIZE, samples + 1);
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     * @return the latency in milliseconds at the percentile, -1 if not enough requests were recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (samples < MIN_SAMPLES) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(latencies, samples);
+        }
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,45 @@
+package org.jahia.community.aws.cognito.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out the requests of a long running task, e.g. a synchronization, to stay under a number of requests per second.
+ */
+public class AwsCognitoPacer {
+    private final long intervalNanos;
+    private long next;
+
+    /**
+     * @param requestsPerSecond the maximum number of requests per second, 0 for no limit
+     */
+    public AwsCognitoPacer(double requestsPerSecond) {
+        intervalNanos = requestsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond) : 0;
+    }
+
+    public void acquire() {
+        long wait = reserve();
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while pacing AWS Cognito requests", e);
+            }
+        }
+    }
+
+    /**
+     * Reserves the next slot without waiting for it.
+     *
+     * @return the time in nanoseconds before the request can be sent
+     */
+    public synchronized long reserve() {
+        if (intervalNanos == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long wait = Math.max(0, next - now);
+        next = Math.max(now, next) + intervalNanos;
+        return wait;
+    }
+}
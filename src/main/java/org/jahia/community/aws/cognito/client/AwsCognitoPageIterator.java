@@ -0,0 +1,63 @@
+package org.jahia.community.aws.cognito.client;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over the items of a paginated AWS Cognito list: the next page is requested once the items of the current
+ * page are consumed, so only one page of the response is held at a time.
+ *
+ * @param <R> the response of a page
+ * @param <T> the items
+ */
+class AwsCognitoPageIterator<R, T> implements Iterator<T> {
+    private final Function<String, R> pageLoader;
+    private final Function<R, Iterator<T>> items;
+    private final Function<R, String> nextToken;
+    private Iterator<T> page = Collections.emptyIterator();
+    private String token;
+    private boolean lastPage;
+
+    /**
+     * @param pageLoader requests the page of a token, null for the first page
+     * @param items      maps the items of a page
+     * @param nextToken  returns the token of the next page, null after the last page
+     */
+    AwsCognitoPageIterator(Function<String, R> pageLoader, Function<R, Iterator<T>> items, Function<R, String> nextToken) {
+        this.pageLoader = pageLoader;
+        this.items = items;
+        this.nextToken = nextToken;
+    }
+
+    /**
+     * @throws RuntimeException if the next page cannot be read
+     */
+    @Override
+    public boolean hasNext() {
+        while (!page.hasNext() && !lastPage) {
+            R response = pageLoader.apply(token);
+            page = items.apply(response);
+            token = nextToken.apply(response);
+            lastPage = token == null;
+        }
+        return page.hasNext();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+
+    Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+}
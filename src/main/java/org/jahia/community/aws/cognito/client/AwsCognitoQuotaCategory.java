@@ -0,0 +1,16 @@
+package org.jahia.community.aws.cognito.client;
+
+/**
+ * AWS Cognito request rate quota categories of the operations called by the module.
+ * The quotas are shared by every user pool of the AWS account.
+ */
+public enum AwsCognitoQuotaCategory {
+    /**
+     * ListUsers and ListUsersInGroup
+     */
+    USER_LIST,
+    /**
+     * AdminListGroupsForUser, GetGroup and ListGroups
+     */
+    USER_RESOURCE_READ
+}
@@ -0,0 +1,108 @@
+package org.jahia.community.aws.cognito.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket of one quota category. The rate is halved when AWS Cognito throttles a request
+ * and grows back by a twentieth of the maximum rate per second without throttling.
+ * In a cluster each node is limited to its share of the configured rate.
+ */
+public class AwsCognitoRateLimiter implements AwsCognitoRateLimiterMBean {
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double INCREASE_STEPS = 20;
+    private static final long ADAPT_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final double configuredRate;
+    private double maxRate;
+    private double minRate;
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+    private long lastAdapt;
+
+    /**
+     * @param maxRate the maximum number of requests per second, 0 for no limit
+     */
+    public AwsCognitoRateLimiter(double maxRate) {
+        this.configuredRate = maxRate;
+        this.maxRate = maxRate;
+        this.minRate = maxRate / INCREASE_STEPS;
+        this.rate = maxRate;
+        this.tokens = Math.max(1, maxRate);
+        this.lastRefill = System.nanoTime();
+        // the first throttled request lowers the rate
+        this.lastAdapt = lastRefill - ADAPT_INTERVAL;
+    }
+
+    /**
+     * Reserves a token without waiting for it.
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     * @return the time in nanoseconds before the request can be sent, -1 if no token is available before the timeout
+     */
+    public long reserve(long timeout) {
+        if (configuredRate <= 0) {
+            return 0;
+        }
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(Math.max(1, rate), tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+            long wait = tokens >= 1 ? 0 : (long) ((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / rate);
+            if (wait > TimeUnit.MILLISECONDS.toNanos(timeout)) {
+                return -1;
+            }
+            // the token is reserved now, later callers queue behind it
+            tokens--;
+            return wait;
+        }
+    }
+
+    /**
+     * Limits this node to a share of the configured rate, the current rate is scaled accordingly.
+     *
+     * @param share the fraction of the configured rate, 1 / the number of cluster nodes
+     */
+    public synchronized void setShare(double share) {
+        if (configuredRate <= 0) {
+            return;
+        }
+        double previousMaxRate = maxRate;
+        maxRate = configuredRate * share;
+        minRate = maxRate / INCREASE_STEPS;
+        rate = Math.max(minRate, Math.min(maxRate, rate * maxRate / previousMaxRate));
+        tokens = Math.min(tokens, Math.max(1, rate));
+    }
+
+    public synchronized void onSuccess() {
+        long now = System.nanoTime();
+        if (rate < maxRate && now - lastAdapt >= ADAPT_INTERVAL) {
+            rate = Math.min(maxRate, rate + maxRate / INCREASE_STEPS);
+            lastAdapt = now;
+        }
+    }
+
+    /**
+     * @return true if the rate was decreased, throttled requests within the same second decrease it only once
+     */
+    public synchronized boolean onThrottled() {
+        long now = System.nanoTime();
+        if (maxRate <= 0 || now - lastAdapt < ADAPT_INTERVAL) {
+            return false;
+        }
+        rate = Math.max(minRate, rate * DECREASE_FACTOR);
+        tokens = Math.min(tokens, 0);
+        lastAdapt = now;
+        return true;
+    }
+
+    @Override
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    @Override
+    public synchronized double getMaxRate() {
+        return maxRate;
+    }
+}
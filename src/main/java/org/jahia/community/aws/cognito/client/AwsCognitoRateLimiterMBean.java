@@ -0,0 +1,16 @@
+package org.jahia.community.aws.cognito.client;
+
+/**
+ * JMX view of the rate limiter of a quota category of a user pool.
+ */
+public interface AwsCognitoRateLimiterMBean {
+    /**
+     * @return the current number of requests per second of this node, 0 for no limit
+     */
+    double getRate();
+
+    /**
+     * @return the share of the configured rate of this node in requests per second, 0 for no limit
+     */
+    double getMaxRate();
+}
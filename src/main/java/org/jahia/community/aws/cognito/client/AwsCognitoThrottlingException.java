@@ -0,0 +1,17 @@
+package org.jahia.community.aws.cognito.client;
+
+/**
+ * Thrown when AWS Cognito throttles a request, or when no request can be sent under the rate limit before the deadline.
+ * Unlike an error, it does not mean that the principal does not exist.
+ */
+public class AwsCognitoThrottlingException extends AwsCognitoUnavailableException {
+    private static final long serialVersionUID = -4021874587046382930L;
+
+    public AwsCognitoThrottlingException(String message) {
+        super(message);
+    }
+
+    public AwsCognitoThrottlingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
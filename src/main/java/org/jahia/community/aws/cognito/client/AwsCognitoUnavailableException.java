@@ -0,0 +1,17 @@
+package org.jahia.community.aws.cognito.client;
+
+/**
+ * Thrown when AWS Cognito cannot answer a request, e.g. while the circuit breaker of the user pool is open.
+ * Unlike an empty result, it does not mean that the principal does not exist.
+ */
+public class AwsCognitoUnavailableException extends RuntimeException {
+    private static final long serialVersionUID = 6264310465236095329L;
+
+    public AwsCognitoUnavailableException(String message) {
+        super(message);
+    }
+
+    public AwsCognitoUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -8,7 +8,10 @@ import software.amazon.awssdk.services.cognitoidentityprovider.model.AttributeTy
 import software.amazon.awssdk.services.cognitoidentityprovider.model.UserType;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.stream.Collectors;
 
@@ -16,26 +19,59 @@ public class AwsCognitoUser implements Serializable {
     private static final Logger logger = LoggerFactory.getLogger(AwsCognitoUser.class);
 
     private static final long serialVersionUID = -200885001913981199L;
+    private static final String ACCOUNT_LOCKED = "j:accountLocked";
+    // The attributes needed to load the memberships: the sub, the AWS username is always set
+    public static final List<String> MEMBERSHIP_ATTRIBUTES = Collections.singletonList(AwsCognitoConstants.SSO_LOGIN);
 
     private final String username;
     private JahiaUserImpl jahiaUser;
     private List<String> groups;
     private final Properties attributes;
+    private final boolean enabled;
+    private final long lastModifiedDate;
 
     public AwsCognitoUser(UserType awsUser) {
+        this(awsUser, Collections.emptyList());
+    }
+
+    /**
+     * @param attributeNames the attributes kept, the sub is always kept, empty to keep every attribute; used when
+     *                       AWS Cognito cannot filter the attributes of the response, e.g. for ListUsersInGroup
+     */
+    public AwsCognitoUser(UserType awsUser, Collection<String> attributeNames) {
+        this(awsUser.username(), awsUser.attributes().stream()
+                        .filter(attribute -> attributeNames.isEmpty() || attributeNames.contains(attribute.name()) || AwsCognitoConstants.SSO_LOGIN.equals(attribute.name()))
+                        .collect(Collectors.toMap(AttributeType::name, AttributeType::value)),
+                !Boolean.FALSE.equals(awsUser.enabled()), awsUser.userLastModifiedDate() != null ? awsUser.userLastModifiedDate().toEpochMilli() : 0);
+    }
+
+    /**
+     * @param awsUsername    the AWS Cognito username of the user
+     * @param awsAttributes  the AWS Cognito attributes of the user, e.g. read from the claims of its ID token
+     */
+    public AwsCognitoUser(String awsUsername, Map<String, String> awsAttributes) {
+        this(awsUsername, awsAttributes, true, 0);
+    }
+
+    private AwsCognitoUser(String awsUsername, Map<String, String> awsAttributes, boolean enabled, long lastModifiedDate) {
+        this.enabled = enabled;
+        this.lastModifiedDate = lastModifiedDate;
         attributes = new Properties();
-        attributes.putAll(awsUser.attributes().stream().collect(Collectors.toMap(AttributeType::name, AttributeType::value)));
+        attributes.putAll(awsAttributes);
         if (!attributes.containsKey(AwsCognitoConstants.SSO_LOGIN)) {
             if (logger.isDebugEnabled()) {
                 logger.debug("User not found: {}", attributes);
             }
             throw new RuntimeException("User not found");
         }
-        attributes.put(AwsCognitoConstants.AWS_USERNAME, awsUser.username());
+        attributes.put(AwsCognitoConstants.AWS_USERNAME, awsUsername);
         username = (String) attributes.get(AwsCognitoConstants.SSO_LOGIN);
         if (attributes.containsKey(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL)) {
             attributes.put(AwsCognitoConstants.USER_PROPERTY_EMAIL, attributes.get(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL));
         }
+        if (!enabled) {
+            attributes.put(ACCOUNT_LOCKED, Boolean.TRUE.toString());
+        }
     }
 
     public String getUsername() {
@@ -46,6 +82,17 @@ public class AwsCognitoUser implements Serializable {
         return attributes;
     }
 
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the last modification date of the user in AWS Cognito in milliseconds, 0 if unknown
+     */
+    public long getLastModifiedDate() {
+        return lastModifiedDate;
+    }
+
     public JahiaUserImpl getJahiaUser() {
         return jahiaUser;
     }
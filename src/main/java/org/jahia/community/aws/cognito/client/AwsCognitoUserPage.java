@@ -0,0 +1,27 @@
+package org.jahia.community.aws.cognito.client;
+
+import java.util.List;
+
+/**
+ * One page of a ListUsers request, with the token of the next page.
+ */
+public class AwsCognitoUserPage {
+    private final List<AwsCognitoUser> users;
+    private final String paginationToken;
+
+    public AwsCognitoUserPage(List<AwsCognitoUser> users, String paginationToken) {
+        this.users = users;
+        this.paginationToken = paginationToken;
+    }
+
+    public List<AwsCognitoUser> getUsers() {
+        return users;
+    }
+
+    /**
+     * @return the token of the next page, null after the last page
+     */
+    public String getPaginationToken() {
+        return paginationToken;
+    }
+}
@@ -1,26 +1,52 @@
 package org.jahia.community.aws.cognito.connector;
 
+import org.apache.commons.lang.StringUtils;
 import org.jahia.community.aws.cognito.api.AwsCognitoConstants;
+import org.jahia.community.aws.cognito.client.AwsCognitoUser;
+import org.jahia.community.aws.cognito.provider.AwsCognitoKarafConfigurationFactory;
+import org.jahia.community.aws.cognito.provider.AwsCognitoUserGroupProvider;
 import org.jahia.modules.jahiaauth.service.ConnectorConfig;
 import org.jahia.modules.jahiaauth.service.ConnectorResultProcessor;
 import org.jahia.modules.jahiaauth.service.JahiaAuthConstants;
 import org.jahia.modules.jahiaoauth.service.JahiaOAuthConstants;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 @Component(service = ConnectorResultProcessor.class)
 public class AwsCognitoUserMapper implements ConnectorResultProcessor {
     private static final Logger logger = LoggerFactory.getLogger(AwsCognitoUserMapper.class);
 
+    private static final String ISSUER_CLAIM = "iss";
+    private static final String AUDIENCE_CLAIM = "aud";
+    private static final String EXPIRATION_CLAIM = "exp";
+    private static final String TOKEN_USE_CLAIM = "token_use";
+    // Claims describing the token itself and not the user
+    private static final Set<String> TOKEN_CLAIMS = new HashSet<>(Arrays.asList(ISSUER_CLAIM, AUDIENCE_CLAIM, EXPIRATION_CLAIM, TOKEN_USE_CLAIM,
+            "iat", "auth_time", "jti", "origin_jti", "event_id", "at_hash", "nonce", "cognito:roles", "cognito:preferred_role",
+            AwsCognitoConstants.COGNITO_USERNAME_CLAIM, AwsCognitoConstants.COGNITO_GROUPS_CLAIM));
+
+    @Reference
+    private AwsCognitoKarafConfigurationFactory awsCognitoKarafConfigurationFactory;
+
     @Override
     public void execute(ConnectorConfig connectorConfig, Map<String, Object> results) {
         try {
@@ -32,6 +58,7 @@ public class AwsCognitoUserMapper implements ConnectorResultProcessor {
             } else if (tokenData.has(AwsCognitoConstants.SSO_LOGIN)) {
                 RequestContextHolder.getRequestAttributes()
                         .setAttribute(JahiaAuthConstants.SSO_LOGIN, tokenData.getString(AwsCognitoConstants.SSO_LOGIN), RequestAttributes.SCOPE_REQUEST);
+                cacheUser(connectorConfig, tokenData);
             }
         } catch (JSONException e) {
             logger.error("Error parsing OpenID Token");
@@ -41,6 +68,62 @@ public class AwsCognitoUserMapper implements ConnectorResultProcessor {
         }
     }
 
+    /**
+     * Seeds the user cache of the providers of the user pool which issued the ID token, so that the login does not call the AWS Cognito API.
+     * The token was received from the token endpoint over TLS, its claims are checked against the connector configuration.
+     */
+    private void cacheUser(ConnectorConfig connectorConfig, JSONObject tokenData) throws JSONException {
+        String issuer = tokenData.optString(ISSUER_CLAIM);
+        if (!"id".equals(tokenData.optString(TOKEN_USE_CLAIM))
+                || !tokenData.optString(AUDIENCE_CLAIM).equals(connectorConfig.getProperty(JahiaOAuthConstants.PROPERTY_API_KEY))
+                || TimeUnit.SECONDS.toMillis(tokenData.optLong(EXPIRATION_CLAIM)) < System.currentTimeMillis()) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("ID token of {} not used to cache the user", tokenData.getString(AwsCognitoConstants.SSO_LOGIN));
+            }
+            return;
+        }
+        for (AwsCognitoUserGroupProvider awsCognitoUserGroupProvider : awsCognitoKarafConfigurationFactory.getUserGroupProviders()) {
+            if (awsCognitoUserGroupProvider.getAwsCognitoConfiguration() != null
+                    && issuer.endsWith("/" + awsCognitoUserGroupProvider.getAwsCognitoConfiguration().getUserPoolId())) {
+                try {
+                    awsCognitoUserGroupProvider.cacheUser(getUser(tokenData, awsCognitoUserGroupProvider.getAwsCognitoConfiguration().getTokenClaimMapping()));
+                } catch (RuntimeException e) {
+                    // the user will be read from the AWS Cognito API
+                    logger.warn("Unable to cache the user of the ID token in provider {}", awsCognitoUserGroupProvider.getKey());
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Every user claim is kept as an attribute, under the name given by the claim mapping of the provider if any,
+     * so that the cached user has the same attributes as a user read from the AWS Cognito API.
+     */
+    private static AwsCognitoUser getUser(JSONObject tokenData, Map<String, String> claimMapping) throws JSONException {
+        Map<String, String> attributes = new HashMap<>();
+        Iterator<?> claims = tokenData.keys();
+        while (claims.hasNext()) {
+            String claim = (String) claims.next();
+            String attribute = claimMapping.containsKey(claim) ? claimMapping.get(claim) : claim;
+            if (!TOKEN_CLAIMS.contains(claim) && !tokenData.isNull(claim) && StringUtils.isNotEmpty(attribute)) {
+                attributes.put(attribute, String.valueOf(tokenData.get(claim)));
+            }
+        }
+        AwsCognitoUser awsCognitoUser = new AwsCognitoUser(tokenData.optString(AwsCognitoConstants.COGNITO_USERNAME_CLAIM, tokenData.getString(AwsCognitoConstants.SSO_LOGIN)), attributes);
+        List<String> groups = new ArrayList<>();
+        JSONArray groupsClaim = tokenData.optJSONArray(AwsCognitoConstants.COGNITO_GROUPS_CLAIM);
+        if (groupsClaim != null) {
+            for (int i = 0; i < groupsClaim.length(); i++) {
+                groups.add(groupsClaim.getString(i));
+            }
+        }
+        awsCognitoUser.setGroups(groups);
+        return awsCognitoUser;
+    }
+
     private JSONObject getTokenData(Map<String, Object> results) throws JSONException {
         Map<String, String> tokenData = (Map<String, String>) results.get(JahiaOAuthConstants.TOKEN_DATA);
         if (tokenData.containsKey(JahiaOAuthConstants.OPEN_ID_TOKEN)) {
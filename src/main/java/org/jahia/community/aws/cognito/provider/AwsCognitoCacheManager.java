@@ -5,8 +5,14 @@ import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+import org.apache.commons.lang.StringUtils;
+import org.jahia.community.aws.cognito.api.AwsCognitoConfiguration;
 import org.jahia.community.aws.cognito.api.AwsCognitoConstants;
+import org.jahia.community.aws.cognito.client.AwsCognitoClientService;
+import org.jahia.community.aws.cognito.client.AwsCognitoFutures;
 import org.jahia.community.aws.cognito.client.AwsCognitoGroup;
+import org.jahia.community.aws.cognito.client.AwsCognitoUnavailableException;
 import org.jahia.community.aws.cognito.client.AwsCognitoUser;
 import org.jahia.services.cache.CacheHelper;
 import org.jahia.services.cache.CacheProvider;
@@ -18,52 +24,235 @@ import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 @Component(service = AwsCognitoCacheManager.class)
-public class AwsCognitoCacheManager {
+public class AwsCognitoCacheManager implements AwsCognitoCacheManagerMBean {
     private static final String MODULE_NAME = "jahia-oauth-aws-cognito";
     private static final String USER_CACHE = "AwsCognitoUsersCache";
     private static final String GROUP_CACHE = "AwsCognitoGroupsCache";
+    private static final String NEGATIVE_CACHE = "AwsCognitoNegativeCache";
+    private static final String INVALIDATION_CACHE = "AwsCognitoInvalidationCache";
+    private static final String GROUP_CATALOG_CACHE = "AwsCognitoGroupCatalogCache";
+    private static final int GROUP_CATALOG_CACHE_SIZE = 100;
+    private static final String GROUP_CATALOG_KEY = "groupCatalog";
+    private static final String USER_CURSOR_CACHE = "AwsCognitoUserCursorCache";
+    private static final int USER_CURSOR_CACHE_SIZE = 1000;
+    private static final int USER_CURSOR_TTL = 300;
+    private static final int INVALIDATION_CACHE_SIZE = 1000;
+    private static final int INVALIDATION_TTL = 60;
+    private static final String CLUSTER_CACHE = "AwsCognitoClusterCache";
+    private static final int CLUSTER_CACHE_SIZE = 100;
+    private static final int HEARTBEAT_INTERVAL = 30;
+    private static final int HEARTBEAT_TTL = 3 * HEARTBEAT_INTERVAL;
+    private static final String LEASE_CACHE = "AwsCognitoLeaseCache";
+    private static final int LEASE_CACHE_SIZE = 10000;
+    private static final int LEASE_TTL = 10;
+    private static final long LEASE_POLL_INTERVAL = 100;
+    private static final String OBJECT_NAME = "org.jahia.community.aws.cognito:type=CacheManager,id=%x";
+    private static final String USER_PATH_CACHE = "org.jahia.services.usermanager.JahiaUserManagerService.userPathByUserNameCache";
+    private static final String GROUP_PATH_CACHE = "org.jahia.services.usermanager.JahiaGroupManagerService.groupPathByGroupNameCache";
+    private static final String MEMBERSHIP_CACHE = "org.jahia.services.usermanager.JahiaGroupManagerService.membershipCache";
+    private static final String LIST_KEY_PREFIX = "all_";
+    private static final String REPLICATOR_FACTORY_SUFFIX = "CacheReplicatorFactory";
+    private static final String REPLICATOR_PROPERTIES = "replicateAsynchronously=true,replicatePuts=true,replicatePutsViaCopy=true,"
+            + "replicateUpdates=true,replicateUpdatesViaCopy=true,replicateRemovals=true";
+    private static final int NEGATIVE_CACHE_SIZE = 10000;
     private static final int TIME_TO_IDLE = 3600;
+    private static final int REFRESH_THREADS = 2;
+    private static final int REFRESH_QUEUE_SIZE = 1000;
+    private static final AwsCognitoConfiguration DEFAULT_CONFIGURATION = new AwsCognitoConfiguration(Collections.<String, Object>emptyMap());
 
     private static final Logger logger = LoggerFactory.getLogger(AwsCognitoCacheManager.class);
 
     private CacheProvider cacheProvider;
+    private AwsCognitoClientService awsCognitoClientService;
     private Ehcache groupCache;
     private Ehcache userCache;
+    // Users and groups not found in AWS Cognito
+    private Ehcache negativeCache;
+    // Replicates the invalidations to the other cluster nodes
+    private Ehcache invalidationCache;
+    // One sorted catalog of the groups per provider and site, shared by every page of a group search
+    private Ehcache groupCatalogCache;
+    private final AtomicLong groupCatalogVersions = new AtomicLong();
+    // Pagination tokens of the user searches sent to AWS Cognito, by position in the results
+    private Ehcache userCursorCache;
+    // Heartbeats of the running cluster nodes, which share the rate limits of AWS Cognito
+    private Ehcache clusterCache;
+    // Loads running on a cluster node, the other nodes wait for the replicated entry instead of calling AWS Cognito
+    private Ehcache leaseCache;
+    // Publishes the heartbeats and polls the loads leased by other nodes
+    private ScheduledExecutorService scheduler;
+    private ObjectName objectName;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final ConcurrentMap<String, Consumer<AwsCognitoInvalidation>> invalidationListeners = new ConcurrentHashMap<>();
+    private final InvalidationListener invalidationListener = new InvalidationListener();
+    // Loads currently running against AWS Cognito, concurrent misses on the same key wait for them
+    private final ConcurrentMap<String, CompletableFuture<Optional<?>>> inFlightLoads = new ConcurrentHashMap<>();
+    private final AtomicLong issuedLoads = new AtomicLong();
+    private final AtomicLong coalescedLoads = new AtomicLong();
+    private final AtomicLong leasedLoads = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    // Provider configurations holding the soft and hard TTLs of their entries
+    private final ConcurrentMap<String, AwsCognitoConfiguration> configurations = new ConcurrentHashMap<>();
+    // Entries currently refreshed in the background
+    private final ConcurrentMap<String, Boolean> refreshes = new ConcurrentHashMap<>();
+    private ExecutorService refreshExecutor;
+    // Secondary index of the user cache: cache key of an email or AWS username -> cache key of the user sub
+    private final ConcurrentMap<String, String> userAliases = new ConcurrentHashMap<>();
+    private final UserAliasesListener userAliasesListener = new UserAliasesListener();
 
     @Reference
-    private void setCacheProvider(CacheProvider cacheProvider) {
+    void setCacheProvider(CacheProvider cacheProvider) {
         this.cacheProvider = cacheProvider;
     }
 
+    @Reference
+    void setAwsCognitoClientService(AwsCognitoClientService awsCognitoClientService) {
+        this.awsCognitoClientService = awsCognitoClientService;
+    }
+
     @Activate
     private void onActivate() {
-        final CacheManager cacheManager = cacheProvider.getCacheManager();
+        onActivate(cacheProvider.getCacheManager());
+    }
+
+    void onActivate(CacheManager cacheManager) {
         userCache = cacheManager.getCache(USER_CACHE);
         if (userCache == null) {
             userCache = createCache(cacheManager, USER_CACHE);
         } else {
             userCache.removeAll();
         }
+        userCache.getCacheEventNotificationService().registerListener(userAliasesListener);
         groupCache = cacheManager.getCache(GROUP_CACHE);
         if (groupCache == null) {
             groupCache = createCache(cacheManager, GROUP_CACHE);
         } else {
             groupCache.removeAll();
         }
+        negativeCache = cacheManager.getCache(NEGATIVE_CACHE);
+        if (negativeCache == null) {
+            negativeCache = createCache(cacheManager, NEGATIVE_CACHE, NEGATIVE_CACHE_SIZE);
+        } else {
+            negativeCache.removeAll();
+        }
+        groupCatalogCache = cacheManager.getCache(GROUP_CATALOG_CACHE);
+        if (groupCatalogCache == null) {
+            groupCatalogCache = createCache(cacheManager, GROUP_CATALOG_CACHE, GROUP_CATALOG_CACHE_SIZE);
+        } else {
+            groupCatalogCache.removeAll();
+        }
+        userCursorCache = cacheManager.getCache(USER_CURSOR_CACHE);
+        if (userCursorCache == null) {
+            userCursorCache = createCache(cacheManager, USER_CURSOR_CACHE, USER_CURSOR_CACHE_SIZE);
+        } else {
+            userCursorCache.removeAll();
+        }
+        invalidationCache = cacheManager.getCache(INVALIDATION_CACHE);
+        if (invalidationCache == null) {
+            invalidationCache = createCache(cacheManager, INVALIDATION_CACHE, INVALIDATION_CACHE_SIZE);
+        }
+        invalidationCache.getCacheEventNotificationService().registerListener(invalidationListener);
+        clusterCache = cacheManager.getCache(CLUSTER_CACHE);
+        if (clusterCache == null) {
+            clusterCache = createCache(cacheManager, CLUSTER_CACHE, CLUSTER_CACHE_SIZE);
+        }
+        leaseCache = cacheManager.getCache(LEASE_CACHE);
+        if (leaseCache == null) {
+            leaseCache = createCache(cacheManager, LEASE_CACHE, LEASE_CACHE_SIZE);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "aws-cognito-cache-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::heartbeat, 0, HEARTBEAT_INTERVAL, TimeUnit.SECONDS);
+        refreshExecutor = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(REFRESH_QUEUE_SIZE), runnable -> {
+            Thread thread = new Thread(runnable, "aws-cognito-cache-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            objectName = new ObjectName(String.format(OBJECT_NAME, System.identityHashCode(this)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            objectName = null;
+            logger.warn("Unable to register the AWS Cognito cache manager MBean");
+            if (logger.isDebugEnabled()) {
+                logger.debug("", e);
+            }
+        }
     }
 
     private static Ehcache createCache(CacheManager cacheManager, String cacheName) {
-        CacheConfiguration cacheConfiguration = cacheManager.getConfiguration().getDefaultCacheConfiguration() != null ?
-                cacheManager.getConfiguration().getDefaultCacheConfiguration().clone() :
-                new CacheConfiguration();
+        CacheConfiguration cacheConfiguration = getDefaultCacheConfiguration(cacheManager);
         cacheConfiguration.setName(cacheName);
         cacheConfiguration.setEternal(false);
         cacheConfiguration.setTimeToIdleSeconds(TIME_TO_IDLE);
+        return addCache(cacheManager, cacheName, cacheConfiguration);
+    }
+
+    private static Ehcache createCache(CacheManager cacheManager, String cacheName, int maxEntries) {
+        CacheConfiguration cacheConfiguration = getDefaultCacheConfiguration(cacheManager);
+        cacheConfiguration.setName(cacheName);
+        cacheConfiguration.setEternal(false);
+        cacheConfiguration.setMaxEntriesLocalHeap(maxEntries);
+        return addCache(cacheManager, cacheName, cacheConfiguration);
+    }
+
+    /**
+     * In a cluster the default cache configuration of Jahia holds a replicator, which only replicates the removals.
+     * The module caches replicate the loaded entries too, so that a principal read from AWS Cognito by one node
+     * is not read again by the other nodes.
+     */
+    private static CacheConfiguration getDefaultCacheConfiguration(CacheManager cacheManager) {
+        if (cacheManager.getConfiguration().getDefaultCacheConfiguration() == null) {
+            return new CacheConfiguration();
+        }
+        CacheConfiguration cacheConfiguration = cacheManager.getConfiguration().getDefaultCacheConfiguration().clone();
+        List<CacheConfiguration.CacheEventListenerFactoryConfiguration> listenerConfigurations = cacheConfiguration.getCacheEventListenerConfigurations();
+        for (int i = 0; i < listenerConfigurations.size(); i++) {
+            CacheConfiguration.CacheEventListenerFactoryConfiguration listenerConfiguration = listenerConfigurations.get(i);
+            if (StringUtils.endsWith(listenerConfiguration.getFullyQualifiedClassPath(), REPLICATOR_FACTORY_SUFFIX)) {
+                CacheConfiguration.CacheEventListenerFactoryConfiguration replicatorConfiguration = new CacheConfiguration.CacheEventListenerFactoryConfiguration();
+                replicatorConfiguration.setClass(listenerConfiguration.getFullyQualifiedClassPath());
+                replicatorConfiguration.setProperties(REPLICATOR_PROPERTIES);
+                replicatorConfiguration.setPropertySeparator(",");
+                listenerConfigurations.set(i, replicatorConfiguration);
+                logger.info("Cache entries are replicated with {}", listenerConfiguration.getFullyQualifiedClassPath());
+            }
+        }
+        return cacheConfiguration;
+    }
+
+    private static Ehcache addCache(CacheManager cacheManager, String cacheName, CacheConfiguration cacheConfiguration) {
         // Create a new cache with the configuration
         Ehcache cache = new Cache(cacheConfiguration);
         cache.setName(cacheName);
@@ -73,25 +262,164 @@ public class AwsCognitoCacheManager {
     }
 
     @Deactivate
-    private void onDeactivate() {
+    void onDeactivate() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                logger.warn("Unable to unregister the AWS Cognito cache manager MBean");
+                if (logger.isDebugEnabled()) {
+                    logger.debug("", e);
+                }
+            }
+            objectName = null;
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (clusterCache != null) {
+            // the other nodes take back the share of this node
+            clusterCache.remove(nodeId);
+        }
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+        refreshes.clear();
+        userAliases.clear();
         // flush
         if (userCache != null) {
+            userCache.getCacheEventNotificationService().unregisterListener(userAliasesListener);
             userCache.removeAll();
         }
         if (groupCache != null) {
             groupCache.removeAll();
         }
+        if (negativeCache != null) {
+            negativeCache.removeAll();
+        }
+        if (groupCatalogCache != null) {
+            groupCatalogCache.removeAll();
+        }
+        if (userCursorCache != null) {
+            userCursorCache.removeAll();
+        }
+        if (invalidationCache != null) {
+            invalidationCache.getCacheEventNotificationService().unregisterListener(invalidationListener);
+        }
+        invalidationListeners.clear();
+    }
+
+    /**
+     * Publishes the heartbeat of this node and counts the nodes whose heartbeat has not expired,
+     * the rate limits of AWS Cognito are split between them.
+     */
+    private void heartbeat() {
+        try {
+            Element element = new Element(nodeId, System.currentTimeMillis());
+            element.setTimeToLive(HEARTBEAT_TTL);
+            clusterCache.put(element);
+            awsCognitoClientService.setClusterSize(clusterCache.getKeysWithExpiryCheck().size());
+        } catch (RuntimeException e) {
+            logger.warn("Unable to count the cluster nodes sharing the AWS Cognito rate limits");
+            if (logger.isDebugEnabled()) {
+                logger.debug("", e);
+            }
+        }
+    }
+
+    public void register(String providerKey, AwsCognitoConfiguration awsCognitoConfiguration) {
+        configurations.put(providerKey, awsCognitoConfiguration);
+    }
+
+    public void unregister(String providerKey) {
+        configurations.remove(providerKey);
+    }
+
+    /**
+     * @param listener applies the invalidations of the provider published by the other cluster nodes
+     */
+    public void registerInvalidationListener(String providerKey, Consumer<AwsCognitoInvalidation> listener) {
+        invalidationListeners.put(providerKey, listener);
+    }
+
+    public void unregisterInvalidationListener(String providerKey) {
+        invalidationListeners.remove(providerKey);
+    }
+
+    /**
+     * Sends the invalidation of principals to the other cluster nodes, nothing is sent outside of a cluster.
+     */
+    public void publishInvalidation(String providerKey, Collection<String> users, Collection<String> groups) {
+        if (users.isEmpty() && groups.isEmpty()) {
+            return;
+        }
+        AwsCognitoInvalidation invalidation = new AwsCognitoInvalidation(nodeId, providerKey, users, groups);
+        Element element = new Element(nodeId + "_" + UUID.randomUUID(), new ModuleClassLoaderAwareCacheEntry(invalidation, MODULE_NAME));
+        element.setTimeToLive(INVALIDATION_TTL);
+        invalidationCache.put(element);
+    }
+
+    private AwsCognitoConfiguration getConfiguration(String providerKey) {
+        return configurations.getOrDefault(providerKey, DEFAULT_CONFIGURATION);
     }
 
     public Optional<AwsCognitoUser> getUser(String providerKey, String siteKey, String attribute) {
-        return Optional.ofNullable((AwsCognitoUser) CacheHelper.getObjectValue(userCache, getCacheNameKey(providerKey, siteKey, attribute)));
+        return Optional.ofNullable(getUserElement(providerKey, siteKey, attribute))
+                .filter(element -> !isExpired(providerKey, element))
+                .map(element -> (AwsCognitoUser) getObjectValue(element));
+    }
+
+    /**
+     * @param attribute the sub of the user, or its email or AWS username resolved with the secondary index
+     */
+    private Element getUserElement(String providerKey, String siteKey, String attribute) {
+        String cacheKey = getCacheNameKey(providerKey, siteKey, attribute);
+        Element element = userCache.get(cacheKey);
+        if (element == null) {
+            String userKey = userAliases.get(cacheKey);
+            if (userKey != null) {
+                element = userCache.get(userKey);
+                // a user replicated from another node may have replaced its aliases
+                if (element == null || !hasAlias(element, attribute)) {
+                    userAliases.remove(cacheKey, userKey);
+                    element = null;
+                }
+            }
+        }
+        return element;
     }
 
     public Optional<AwsCognitoUser> getOrRefreshUser(String providerKey, String siteKey, String attribute, Supplier<Optional<AwsCognitoUser>> supplier) {
-        return getUser(providerKey, siteKey, attribute).map(Optional::of).orElseGet(() -> {
-            logger.debug("User {} not found in the cache", attribute);
-            Optional<AwsCognitoUser> awsCognitoUser = supplier.get();
-            awsCognitoUser.ifPresent(user -> cacheUser(providerKey, siteKey, user));
+        return AwsCognitoFutures.join(getOrRefreshUserAsync(providerKey, siteKey, attribute, AwsCognitoFutures.supplyNow(supplier)));
+    }
+
+    /**
+     * Same as {@link #getOrRefreshUser(String, String, String, Supplier)}, without waiting for AWS Cognito
+     * when the supplier sends an asynchronous request.
+     */
+    public CompletableFuture<Optional<AwsCognitoUser>> getOrRefreshUserAsync(String providerKey, String siteKey, String attribute, Supplier<CompletableFuture<Optional<AwsCognitoUser>>> supplier) {
+        String loadKey = "user_" + getCacheNameKey(providerKey, siteKey, attribute);
+        Element element = getUserElement(providerKey, siteKey, attribute);
+        if (element != null && !isExpired(providerKey, element)) {
+            refreshIfStale(providerKey, loadKey, element, supplier, user -> cacheUser(providerKey, siteKey, user));
+            return CompletableFuture.completedFuture(Optional.ofNullable((AwsCognitoUser) getObjectValue(element)));
+        }
+        // an expired entry of a deleted principal is not reloaded until the negative entry expires
+        if (negativeCache.get(loadKey) != null) {
+            logger.debug("User {} is unknown", attribute);
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        logger.debug("User {} not found in the cache", attribute);
+        return loadAsync(loadKey, () -> getUser(providerKey, siteKey, attribute), supplier, user -> cacheUser(providerKey, siteKey, user), () -> {
+            if (element != null) {
+                // the expired entry would otherwise be served as stale while AWS Cognito is unavailable
+                userCache.removeElement(element);
+            }
+            cacheUnknown(providerKey, loadKey);
+        }).handle((awsCognitoUser, error) -> {
+            if (error != null) {
+                return getStaleValue(element, loadKey, error);
+            }
             return awsCognitoUser;
         });
     }
@@ -101,48 +429,173 @@ public class AwsCognitoCacheManager {
             logger.debug("Caching user {} in site {}", awsCognitoUser.getUsername(), siteKey);
         }
         ModuleClassLoaderAwareCacheEntry cacheEntry = new ModuleClassLoaderAwareCacheEntry(awsCognitoUser, MODULE_NAME);
-        userCache.put(new Element(getCacheNameKey(providerKey, siteKey, awsCognitoUser.cacheJahiaUser(providerKey, siteKey)), cacheEntry));
+        String userKey = getCacheNameKey(providerKey, siteKey, awsCognitoUser.cacheJahiaUser(providerKey, siteKey));
+        Element element = new Element(userKey, cacheEntry);
+        element.setTimeToLive(getTimeToLive(providerKey));
+        // The replaced entry may have other aliases, e.g. if the email changed
+        Element previousElement = userCache.get(userKey);
+        if (previousElement != null && getObjectValue(previousElement) instanceof AwsCognitoUser) {
+            removeUserAliases(userKey, (AwsCognitoUser) getObjectValue(previousElement));
+        }
+        // the aliases are indexed by the cache listener, also for the users replicated from another node
+        userCache.put(element);
+        evictUnknownUser(providerKey, siteKey, awsCognitoUser.getUsername());
+        evictUnknownUser(providerKey, siteKey, (String) awsCognitoUser.getAttributes().get(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL));
+        evictUnknownUser(providerKey, siteKey, (String) awsCognitoUser.getAttributes().get(AwsCognitoConstants.AWS_USERNAME));
+    }
+
+    private void addUserAliases(String userKey, AwsCognitoUser awsCognitoUser) {
+        // the alias keys share the provider and site prefix of the user key
+        String prefix = userKey.substring(0, userKey.length() - awsCognitoUser.getUsername().length());
+        for (String alias : new String[]{(String) awsCognitoUser.getAttributes().get(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL),
+                (String) awsCognitoUser.getAttributes().get(AwsCognitoConstants.AWS_USERNAME)}) {
+            if (alias != null && !alias.equals(awsCognitoUser.getUsername())) {
+                userAliases.put(prefix + alias, userKey);
+            }
+        }
+    }
+
+    private void removeUserAliases(String userKey, AwsCognitoUser awsCognitoUser) {
+        // the alias keys share the provider and site prefix of the user key
+        String prefix = userKey.substring(0, userKey.length() - awsCognitoUser.getUsername().length());
+        for (String alias : new String[]{(String) awsCognitoUser.getAttributes().get(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL),
+                (String) awsCognitoUser.getAttributes().get(AwsCognitoConstants.AWS_USERNAME)}) {
+            if (alias != null) {
+                userAliases.remove(prefix + alias, userKey);
+            }
+        }
+    }
+
+    private static boolean hasAlias(Element element, String alias) {
+        Object value = getObjectValue(element);
+        return value instanceof AwsCognitoUser && (alias.equals(((AwsCognitoUser) value).getAttributes().get(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL))
+                || alias.equals(((AwsCognitoUser) value).getAttributes().get(AwsCognitoConstants.AWS_USERNAME)));
+    }
+
+    /**
+     * Forgets that a user was not found, e.g. because it has just been created in AWS Cognito.
+     */
+    public void evictUnknownUser(String providerKey, String siteKey, String attribute) {
+        if (attribute != null) {
+            negativeCache.remove("user_" + getCacheNameKey(providerKey, siteKey, attribute));
+        }
     }
 
     public Optional<List<AwsCognitoUser>> getUsers(String providerKey, String siteKey, int offset, int limit, Supplier<Optional<List<AwsCognitoUser>>> supplier) {
-        String cacheKey = "all_" + offset + "_" + limit;
-        return Optional.ofNullable((List<AwsCognitoUser>) CacheHelper.getObjectValue(userCache, getCacheNameKey(providerKey, siteKey, cacheKey))).map(Optional::of).orElseGet(() -> {
-            Optional<List<AwsCognitoUser>> awsCognitoUsers = supplier.get();
-            awsCognitoUsers.ifPresent(users -> {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Caching users {} in site {}", cacheKey, siteKey);
-                }
-                ModuleClassLoaderAwareCacheEntry cacheEntry = new ModuleClassLoaderAwareCacheEntry(users, MODULE_NAME);
-                userCache.put(new Element(getCacheNameKey(providerKey, siteKey, cacheKey), cacheEntry));
-            });
-            return awsCognitoUsers;
-        });
+        String cacheKey = LIST_KEY_PREFIX + offset + "_" + limit;
+        Supplier<Optional<List<AwsCognitoUser>>> cached = () -> Optional.ofNullable((List<AwsCognitoUser>) CacheHelper.getObjectValue(userCache, getCacheNameKey(providerKey, siteKey, cacheKey)));
+        return cached.get().map(Optional::of).orElseGet(() -> load("users_" + getCacheNameKey(providerKey, siteKey, cacheKey), cached, supplier, users -> {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Caching users {} in site {}", cacheKey, siteKey);
+            }
+            ModuleClassLoaderAwareCacheEntry cacheEntry = new ModuleClassLoaderAwareCacheEntry(users, MODULE_NAME);
+            userCache.put(new Element(getCacheNameKey(providerKey, siteKey, cacheKey), cacheEntry));
+        }));
     }
 
-    public Optional<List<AwsCognitoGroup>> getGroups(String providerKey, String siteKey, int offset, int limit, Supplier<Optional<List<AwsCognitoGroup>>> supplier) {
-        String cacheKey = "all_" + offset + "_" + limit;
-        return Optional.ofNullable((List<AwsCognitoGroup>) CacheHelper.getObjectValue(userCache, getCacheNameKey(providerKey, siteKey, cacheKey))).map(Optional::of).orElseGet(() -> {
-            Optional<List<AwsCognitoGroup>> awsCognitoUsers = supplier.get();
-            awsCognitoUsers.ifPresent(users -> {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Caching users {} in site {}", cacheKey, siteKey);
-                }
-                ModuleClassLoaderAwareCacheEntry cacheEntry = new ModuleClassLoaderAwareCacheEntry(users, MODULE_NAME);
-                userCache.put(new Element(getCacheNameKey(providerKey, siteKey, cacheKey), cacheEntry));
-            });
-            return awsCognitoUsers;
-        });
+    /**
+     * Gets the catalog of the groups of a provider, loading all the groups once for every offset and limit.
+     * An expired catalog is served while AWS Cognito is unavailable.
+     */
+    public Optional<AwsCognitoGroupCatalog> getGroupCatalog(String providerKey, String siteKey, Supplier<Optional<List<AwsCognitoGroup>>> supplier) {
+        String cacheKey = getCacheNameKey(providerKey, siteKey, GROUP_CATALOG_KEY);
+        Element element = groupCatalogCache.get(cacheKey);
+        if (element != null && !isExpired(providerKey, element)) {
+            return Optional.ofNullable((AwsCognitoGroupCatalog) getObjectValue(element));
+        }
+        Supplier<Optional<AwsCognitoGroupCatalog>> cached = () -> Optional.ofNullable(groupCatalogCache.get(cacheKey))
+                .filter(cachedElement -> !isExpired(providerKey, cachedElement))
+                .map(cachedElement -> (AwsCognitoGroupCatalog) getObjectValue(cachedElement));
+        Supplier<CompletableFuture<Optional<AwsCognitoGroupCatalog>>> catalogSupplier = AwsCognitoFutures.supplyNow(() -> supplier.get()
+                .map(groups -> new AwsCognitoGroupCatalog(groups, groupCatalogVersions.incrementAndGet())));
+        return AwsCognitoFutures.join(loadAsync("groups_" + cacheKey, cached, catalogSupplier, catalog -> {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Caching catalog {} of {} groups in site {}", catalog.getVersion(), catalog.size(), siteKey);
+            }
+            Element catalogElement = new Element(cacheKey, new ModuleClassLoaderAwareCacheEntry(catalog, MODULE_NAME));
+            catalogElement.setTimeToLive(getTimeToLive(providerKey));
+            groupCatalogCache.put(catalogElement);
+        }, null).handle((catalog, error) -> {
+            if (error != null) {
+                return getStaleValue(element, cacheKey, error);
+            }
+            return catalog;
+        }));
+    }
+
+    /**
+     * @param query  the ListUsers filter of the search
+     * @param offset the position of the first user to read
+     * @return the position closest to the offset, but not after it, with the pagination token of the page starting there,
+     * null if no page of the search is known
+     */
+    @SuppressWarnings("unchecked")
+    public Map.Entry<Integer, String> getUserCursor(String providerKey, String siteKey, String query, int offset) {
+        Element element = userCursorCache.get(getCacheNameKey(providerKey, siteKey, LIST_KEY_PREFIX + "cursors_" + query));
+        return element != null ? ((TreeMap<Integer, String>) element.getObjectValue()).floorEntry(offset) : null;
+    }
+
+    /**
+     * @param cursors position in the results -> pagination token of the page starting there
+     */
+    @SuppressWarnings("unchecked")
+    public void cacheUserCursors(String providerKey, String siteKey, String query, Map<Integer, String> cursors) {
+        if (cursors.isEmpty()) {
+            return;
+        }
+        String cacheKey = getCacheNameKey(providerKey, siteKey, LIST_KEY_PREFIX + "cursors_" + query);
+        Element element = userCursorCache.get(cacheKey);
+        TreeMap<Integer, String> allCursors = element != null ? new TreeMap<>((TreeMap<Integer, String>) element.getObjectValue()) : new TreeMap<>();
+        allCursors.putAll(cursors);
+        Element cursorsElement = new Element(cacheKey, allCursors);
+        cursorsElement.setTimeToLive(USER_CURSOR_TTL);
+        userCursorCache.put(cursorsElement);
+    }
+
+    /**
+     * Forgets the pagination tokens of a search, e.g. because AWS Cognito rejected one of them.
+     */
+    public void evictUserCursors(String providerKey, String siteKey, String query) {
+        userCursorCache.remove(getCacheNameKey(providerKey, siteKey, LIST_KEY_PREFIX + "cursors_" + query));
     }
 
     public Optional<AwsCognitoGroup> getGroup(String providerKey, String siteKey, String groupname) {
-        return Optional.ofNullable((AwsCognitoGroup) CacheHelper.getObjectValue(groupCache, getCacheNameKey(providerKey, siteKey, groupname)));
+        return Optional.ofNullable(groupCache.get(getCacheNameKey(providerKey, siteKey, groupname)))
+                .filter(element -> !isExpired(providerKey, element))
+                .map(element -> (AwsCognitoGroup) getObjectValue(element));
     }
 
     public Optional<AwsCognitoGroup> getOrRefreshGroup(String providerKey, String siteKey, String groupname, Supplier<Optional<AwsCognitoGroup>> supplier) {
-        return getGroup(providerKey, siteKey, groupname).map(Optional::of).orElseGet(() -> {
-            logger.debug("Group {} not found in the cache", groupname);
-            Optional<AwsCognitoGroup> awsCognitoGroup = supplier.get();
-            awsCognitoGroup.ifPresent(group -> cacheGroup(providerKey, siteKey, group));
+        return AwsCognitoFutures.join(getOrRefreshGroupAsync(providerKey, siteKey, groupname, AwsCognitoFutures.supplyNow(supplier)));
+    }
+
+    /**
+     * Same as {@link #getOrRefreshGroup(String, String, String, Supplier)}, without waiting for AWS Cognito
+     * when the supplier sends an asynchronous request.
+     */
+    public CompletableFuture<Optional<AwsCognitoGroup>> getOrRefreshGroupAsync(String providerKey, String siteKey, String groupname, Supplier<CompletableFuture<Optional<AwsCognitoGroup>>> supplier) {
+        String loadKey = "group_" + getCacheNameKey(providerKey, siteKey, groupname);
+        Element element = groupCache.get(getCacheNameKey(providerKey, siteKey, groupname));
+        if (element != null && !isExpired(providerKey, element)) {
+            refreshIfStale(providerKey, loadKey, element, supplier, group -> cacheGroup(providerKey, siteKey, group));
+            return CompletableFuture.completedFuture(Optional.ofNullable((AwsCognitoGroup) getObjectValue(element)));
+        }
+        // an expired entry of a deleted principal is not reloaded until the negative entry expires
+        if (negativeCache.get(loadKey) != null) {
+            logger.debug("Group {} is unknown", groupname);
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        logger.debug("Group {} not found in the cache", groupname);
+        return loadAsync(loadKey, () -> getGroup(providerKey, siteKey, groupname), supplier, group -> cacheGroup(providerKey, siteKey, group), () -> {
+            if (element != null) {
+                // the expired entry would otherwise be served as stale while AWS Cognito is unavailable
+                groupCache.removeElement(element);
+            }
+            cacheUnknown(providerKey, loadKey);
+        }).handle((awsCognitoGroup, error) -> {
+            if (error != null) {
+                return getStaleValue(element, loadKey, error);
+            }
             return awsCognitoGroup;
         });
     }
@@ -152,18 +605,469 @@ public class AwsCognitoCacheManager {
             logger.debug("Caching group ({}): {} in site {}", awsCognitoGroup.getName(), awsCognitoGroup.getName(), siteKey);
         }
         ModuleClassLoaderAwareCacheEntry cacheEntry = new ModuleClassLoaderAwareCacheEntry(awsCognitoGroup, MODULE_NAME);
-        groupCache.put(new Element(getCacheNameKey(providerKey, siteKey, awsCognitoGroup.cacheGroup(siteKey)), cacheEntry));
+        Element element = new Element(getCacheNameKey(providerKey, siteKey, awsCognitoGroup.cacheGroup(siteKey)), cacheEntry);
+        element.setTimeToLive(getTimeToLive(providerKey));
+        groupCache.put(element);
+        evictUnknownGroup(providerKey, siteKey, awsCognitoGroup.getName());
+    }
+
+    /**
+     * Forgets that a group was not found, e.g. because it has just been created in AWS Cognito.
+     */
+    public void evictUnknownGroup(String providerKey, String siteKey, String groupname) {
+        negativeCache.remove("group_" + getCacheNameKey(providerKey, siteKey, groupname));
+    }
+
+    private void cacheUnknown(String providerKey, String loadKey) {
+        int negativeCacheTtl = getConfiguration(providerKey).getNegativeCacheTtl();
+        if (negativeCacheTtl > 0) {
+            Element element = new Element(loadKey, Boolean.TRUE);
+            element.setTimeToLive(negativeCacheTtl);
+            negativeCache.put(element);
+        }
+    }
+
+    /**
+     * Entries stay in the cache for the stale grace period after their hard TTL, to be served while AWS Cognito is unavailable.
+     */
+    private int getTimeToLive(String providerKey) {
+        AwsCognitoConfiguration awsCognitoConfiguration = getConfiguration(providerKey);
+        return awsCognitoConfiguration.getCacheHardTtl() + awsCognitoConfiguration.getCacheStaleGracePeriod();
+    }
+
+    private boolean isExpired(String providerKey, Element element) {
+        return System.currentTimeMillis() - element.getLatestOfCreationAndUpdateTime() >= TimeUnit.SECONDS.toMillis(getConfiguration(providerKey).getCacheHardTtl());
+    }
+
+    /**
+     * Serves an expired entry while AWS Cognito is unavailable, an unknown key fails fast.
+     *
+     * @throws RuntimeException the load error if AWS Cognito is available, or if there is no expired entry
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Optional<T> getStaleValue(Element element, String loadKey, Throwable error) {
+        Throwable cause = AwsCognitoFutures.unwrap(error);
+        if (element == null || !(cause instanceof AwsCognitoUnavailableException)) {
+            throw AwsCognitoFutures.propagate(cause);
+        }
+        staleHits.incrementAndGet();
+        logger.debug("AWS Cognito is unavailable, serving the expired entry of {}", loadKey);
+        return Optional.ofNullable((T) getObjectValue(element));
+    }
+
+    private static Object getObjectValue(Element element) {
+        Object value = element.getObjectValue();
+        return value instanceof ModuleClassLoaderAwareCacheEntry ? ((ModuleClassLoaderAwareCacheEntry) value).getValue() : value;
+    }
+
+    /**
+     * Entries older than the soft TTL of their provider are still served, and reloaded in the background.
+     * Entries older than the hard TTL have expired and are loaded by the caller.
+     */
+    private <T> void refreshIfStale(String providerKey, String loadKey, Element element, Supplier<CompletableFuture<Optional<T>>> supplier, Consumer<T> cacher) {
+        AwsCognitoConfiguration awsCognitoConfiguration = getConfiguration(providerKey);
+        if (!awsCognitoConfiguration.isRefreshAheadEnabled()
+                || System.currentTimeMillis() - element.getLatestOfCreationAndUpdateTime() < TimeUnit.SECONDS.toMillis(awsCognitoConfiguration.getCacheSoftTtl())
+                || refreshes.putIfAbsent(loadKey, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            // a synchronous supplier runs in the refresh thread, an asynchronous one only sends its request from it
+            refreshExecutor.execute(() -> {
+                logger.debug("Refreshing {}", loadKey);
+                issuedLoads.incrementAndGet();
+                CompletableFuture<Optional<T>> refresh;
+                try {
+                    refresh = supplier.get();
+                } catch (RuntimeException e) {
+                    refresh = AwsCognitoFutures.failed(e);
+                }
+                refresh.whenComplete((value, error) -> {
+                    try {
+                        if (error == null) {
+                            value.ifPresent(cacher);
+                        } else {
+                            logger.warn("Unable to refresh {}", loadKey);
+                            if (logger.isDebugEnabled()) {
+                                logger.debug("", AwsCognitoFutures.unwrap(error));
+                            }
+                        }
+                    } finally {
+                        refreshes.remove(loadKey);
+                    }
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            refreshes.remove(loadKey);
+            logger.debug("Refresh queue is full, {} will be refreshed later", loadKey);
+        }
+    }
+
+    private <T> Optional<T> load(String loadKey, Supplier<Optional<T>> cached, Supplier<Optional<T>> supplier, Consumer<T> cacher) {
+        return AwsCognitoFutures.join(loadAsync(loadKey, cached, AwsCognitoFutures.supplyNow(supplier), cacher, null));
+    }
+
+    /**
+     * Loads a missing entry once per key: the first caller runs the supplier, concurrent callers for the same key
+     * get the result of its load instead of calling AWS Cognito again. In a cluster the load is leased to the node
+     * running it: a node missing the same entry waits for the replicated entry, and loads it itself if the lease
+     * is released or expires without it.
+     *
+     * @param unknownCacher records that the supplier found nothing, before the lease is released; may be null
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<Optional<T>> loadAsync(String loadKey, Supplier<Optional<T>> cached, Supplier<CompletableFuture<Optional<T>>> supplier, Consumer<T> cacher, Runnable unknownCacher) {
+        CompletableFuture<Optional<?>> load = new CompletableFuture<>();
+        CompletableFuture<Optional<?>> inFlightLoad = inFlightLoads.putIfAbsent(loadKey, load);
+        if (inFlightLoad != null) {
+            coalescedLoads.incrementAndGet();
+            logger.debug("Waiting for the running load of {}", loadKey);
+            return inFlightLoad.thenApply(value -> (Optional<T>) value);
+        }
+        CompletableFuture<Optional<T>> value;
+        try {
+            // The previous load may have completed between the cache miss and the registration of this one
+            Optional<T> cachedValue = cached.get();
+            if (cachedValue.isPresent()) {
+                value = CompletableFuture.completedFuture(cachedValue);
+            } else if (isLeasedByOtherNode(loadKey)) {
+                leasedLoads.incrementAndGet();
+                logger.debug("Waiting for the load of {} by another cluster node", loadKey);
+                value = awaitLeasedLoad(loadKey, cached)
+                        .thenCompose(replicated -> replicated != null ? CompletableFuture.completedFuture(replicated) : loadLeased(loadKey, supplier, cacher, unknownCacher));
+            } else {
+                value = loadLeased(loadKey, supplier, cacher, unknownCacher);
+            }
+        } catch (RuntimeException e) {
+            value = AwsCognitoFutures.failed(e);
+        }
+        value.whenComplete((loaded, error) -> {
+            inFlightLoads.remove(loadKey, load);
+            if (error != null) {
+                load.completeExceptionally(AwsCognitoFutures.unwrap(error));
+            } else {
+                load.complete(loaded);
+            }
+        });
+        return load.thenApply(loaded -> (Optional<T>) loaded);
+    }
+
+    private <T> CompletableFuture<Optional<T>> loadLeased(String loadKey, Supplier<CompletableFuture<Optional<T>>> supplier, Consumer<T> cacher, Runnable unknownCacher) {
+        Element lease = new Element(loadKey, nodeId);
+        lease.setTimeToLive(LEASE_TTL);
+        leaseCache.put(lease);
+        issuedLoads.incrementAndGet();
+        CompletableFuture<Optional<T>> value;
+        try {
+            value = supplier.get().thenApply(loaded -> {
+                if (loaded.isPresent()) {
+                    cacher.accept(loaded.get());
+                } else if (unknownCacher != null) {
+                    unknownCacher.run();
+                }
+                return loaded;
+            });
+        } catch (RuntimeException e) {
+            value = AwsCognitoFutures.failed(e);
+        }
+        // the entry is cached before the lease is released
+        return value.whenComplete((loaded, error) -> leaseCache.remove(loadKey));
+    }
+
+    private boolean isLeasedByOtherNode(String loadKey) {
+        Element lease = leaseCache.get(loadKey);
+        return lease != null && !nodeId.equals(lease.getObjectValue());
+    }
+
+    /**
+     * @return the entry loaded by the node holding the lease, an empty value if it found nothing,
+     * null if the lease was released or expired without a result
+     */
+    private <T> CompletableFuture<Optional<T>> awaitLeasedLoad(String loadKey, Supplier<Optional<T>> cached) {
+        CompletableFuture<Optional<T>> result = new CompletableFuture<>();
+        pollLeasedLoad(loadKey, cached, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LEASE_TTL), result);
+        return result;
+    }
+
+    private <T> void pollLeasedLoad(String loadKey, Supplier<Optional<T>> cached, long deadline, CompletableFuture<Optional<T>> result) {
+        try {
+            scheduler.schedule(() -> {
+                try {
+                    Optional<T> cachedValue = cached.get();
+                    if (cachedValue.isPresent()) {
+                        result.complete(cachedValue);
+                    } else if (negativeCache.get(loadKey) != null) {
+                        result.complete(Optional.empty());
+                    } else if (!isLeasedByOtherNode(loadKey) || System.currentTimeMillis() >= deadline) {
+                        result.complete(null);
+                    } else {
+                        pollLeasedLoad(loadKey, cached, deadline, result);
+                    }
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }, LEASE_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            result.complete(null);
+        }
+    }
+
+    @Override
+    public long getIssuedLoads() {
+        return issuedLoads.get();
+    }
+
+    @Override
+    public long getLeasedLoads() {
+        return leasedLoads.get();
+    }
+
+    @Override
+    public long getCoalescedLoads() {
+        return coalescedLoads.get();
+    }
+
+    @Override
+    public long getStaleHits() {
+        return staleHits.get();
     }
 
     private static String getCacheNameKey(String providerKey, String siteKey, String objectName) {
         return providerKey + "_" + siteKey + "_" + AwsCognitoConstants.PROVIDER_KEY + "_" + objectName;
     }
 
+    /**
+     * Keeps the secondary index consistent when users enter the cache from another cluster node, or leave the cache.
+     */
+    private class UserAliasesListener extends CacheEventListenerAdapter {
+        @Override
+        public void notifyElementPut(Ehcache cache, Element element) {
+            addAliases(element);
+        }
+
+        @Override
+        public void notifyElementUpdated(Ehcache cache, Element element) {
+            addAliases(element);
+        }
+
+        @Override
+        public void notifyElementRemoved(Ehcache cache, Element element) {
+            removeAliases(element);
+        }
+
+        @Override
+        public void notifyElementExpired(Ehcache cache, Element element) {
+            removeAliases(element);
+        }
+
+        @Override
+        public void notifyElementEvicted(Ehcache cache, Element element) {
+            removeAliases(element);
+        }
+
+        @Override
+        public void notifyRemoveAll(Ehcache cache) {
+            userAliases.clear();
+        }
+
+        private void addAliases(Element element) {
+            if (element != null && element.getObjectKey() instanceof String && getObjectValue(element) instanceof AwsCognitoUser) {
+                addUserAliases((String) element.getObjectKey(), (AwsCognitoUser) getObjectValue(element));
+            }
+        }
+
+        private void removeAliases(Element element) {
+            if (element != null && element.getObjectKey() instanceof String && getObjectValue(element) instanceof AwsCognitoUser) {
+                removeUserAliases((String) element.getObjectKey(), (AwsCognitoUser) getObjectValue(element));
+            }
+        }
+    }
+
+    /**
+     * Dispatches the invalidations replicated from the other cluster nodes to their provider.
+     */
+    private class InvalidationListener extends CacheEventListenerAdapter {
+        @Override
+        public void notifyElementPut(Ehcache cache, Element element) {
+            Object value = element != null ? getObjectValue(element) : null;
+            if (value instanceof AwsCognitoInvalidation && !nodeId.equals(((AwsCognitoInvalidation) value).getOrigin())) {
+                Consumer<AwsCognitoInvalidation> listener = invalidationListeners.get(((AwsCognitoInvalidation) value).getProviderKey());
+                if (listener != null) {
+                    try {
+                        listener.accept((AwsCognitoInvalidation) value);
+                    } catch (Exception e) {
+                        logger.warn("Unable to apply the invalidation of provider {}", ((AwsCognitoInvalidation) value).getProviderKey());
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("", e);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes changed or deleted users from the module caches, and their paths and memberships from the Jahia caches.
+     */
+    public void evictUsers(String providerKey, String siteKey, Collection<AwsCognitoUser> awsCognitoUsers) {
+        evictUsers(providerKey, siteKey, awsCognitoUsers, new HashSet<>());
+    }
+
+    /**
+     * Removes users known only by their sub, email or AWS username from the module caches and the Jahia caches,
+     * e.g. users that may not have been read yet.
+     */
+    public void evictUserKeys(String providerKey, String siteKey, Collection<String> keys) {
+        List<AwsCognitoUser> awsCognitoUsers = new ArrayList<>();
+        for (String key : keys) {
+            Optional.ofNullable(getUserElement(providerKey, siteKey, key)).map(element -> (AwsCognitoUser) getObjectValue(element)).ifPresent(awsCognitoUsers::add);
+            evictUnknownUser(providerKey, siteKey, key);
+        }
+        evictUsers(providerKey, siteKey, awsCognitoUsers, new HashSet<>(keys));
+    }
+
+    private void evictUsers(String providerKey, String siteKey, Collection<AwsCognitoUser> awsCognitoUsers, Set<String> usernames) {
+        if (awsCognitoUsers.isEmpty() && usernames.isEmpty()) {
+            return;
+        }
+        for (AwsCognitoUser awsCognitoUser : awsCognitoUsers) {
+            usernames.add(awsCognitoUser.getUsername());
+            userCache.remove(getCacheNameKey(providerKey, siteKey, awsCognitoUser.getUsername()));
+            evictUnknownUser(providerKey, siteKey, awsCognitoUser.getUsername());
+            evictUnknownUser(providerKey, siteKey, (String) awsCognitoUser.getAttributes().get(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL));
+            evictUnknownUser(providerKey, siteKey, (String) awsCognitoUser.getAttributes().get(AwsCognitoConstants.AWS_USERNAME));
+        }
+        evictLists(userCache, providerKey, siteKey);
+        // created or deleted users shift the positions of the following pages
+        evictLists(userCursorCache, providerKey, siteKey);
+        evictPrincipals(USER_PATH_CACHE, usernames);
+        evictPrincipals(MEMBERSHIP_CACHE, usernames);
+    }
+
+    /**
+     * Removes changed or deleted groups from the module caches, and their paths and memberships from the Jahia caches.
+     */
+    public void evictGroups(String providerKey, String siteKey, Collection<String> groupnames) {
+        if (groupnames.isEmpty()) {
+            return;
+        }
+        for (String groupname : groupnames) {
+            groupCache.remove(getCacheNameKey(providerKey, siteKey, groupname));
+            evictUnknownGroup(providerKey, siteKey, groupname);
+        }
+        groupCatalogCache.remove(getCacheNameKey(providerKey, siteKey, GROUP_CATALOG_KEY));
+        evictPrincipals(GROUP_PATH_CACHE, groupnames);
+        evictPrincipals(MEMBERSHIP_CACHE, groupnames);
+    }
+
+    private static void evictLists(Ehcache cache, String providerKey, String siteKey) {
+        String prefix = getCacheNameKey(providerKey, siteKey, LIST_KEY_PREFIX);
+        for (Object key : cache.getKeys()) {
+            if (key instanceof String && ((String) key).startsWith(prefix)) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    private void evictPrincipals(String cacheName, Collection<String> principals) {
+        evictPrincipals(cacheName, principals, null);
+    }
+
+    /**
+     * Removes the entries of a Jahia cache whose key has one of the principal names as a path or site segment,
+     * in a single pass over the keys.
+     *
+     * @param providerPath if not null, the entries whose key or value contains this provider path are removed too
+     */
+    private void evictPrincipals(String cacheName, Collection<String> principals, String providerPath) {
+        Ehcache cache = cacheProvider.getCacheManager().getEhcache(cacheName);
+        if (cache == null) {
+            return;
+        }
+        Set<String> names = new HashSet<>(principals);
+        for (Object key : cache.getKeys()) {
+            if (key != null && (matchesPrincipal(key.toString(), names) || (providerPath != null && matchesProviderPath(cache, key, providerPath)))) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    private static boolean matchesPrincipal(String key, Set<String> names) {
+        for (String segment : StringUtils.split(key, "/:")) {
+            if (names.contains(segment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesProviderPath(Ehcache cache, Object key, String providerPath) {
+        if (key.toString().contains(providerPath)) {
+            return true;
+        }
+        Element element = cache.getQuiet(key);
+        Object value = element != null ? getObjectValue(element) : null;
+        return value != null && value.toString().contains(providerPath);
+    }
+
+    /**
+     * Removes the entries of one provider from the module caches, and its principals from the Jahia caches,
+     * leaving the other providers untouched.
+     *
+     * @param siteKey the target site of the provider, which is part of its cache keys
+     */
+    public void flushProvider(String providerKey, String siteKey) {
+        // the whole key prefix, a provider key can be the start of another one, e.g. cognito and cognito_2
+        String prefix = getCacheNameKey(providerKey, siteKey, "");
+        Set<String> principals = new HashSet<>();
+        for (Object key : userCache.getKeys()) {
+            if (key instanceof String && ((String) key).startsWith(prefix)) {
+                Element element = userCache.getQuiet(key);
+                if (element != null && getObjectValue(element) instanceof AwsCognitoUser) {
+                    principals.add(((AwsCognitoUser) getObjectValue(element)).getUsername());
+                }
+                userCache.remove(key);
+            }
+        }
+        for (Object key : groupCache.getKeys()) {
+            if (key instanceof String && ((String) key).startsWith(prefix)) {
+                Element element = groupCache.getQuiet(key);
+                if (element != null && getObjectValue(element) instanceof AwsCognitoGroup) {
+                    principals.add(((AwsCognitoGroup) getObjectValue(element)).getName());
+                }
+                groupCache.remove(key);
+            }
+        }
+        for (Object key : groupCatalogCache.getKeys()) {
+            if (key instanceof String && ((String) key).startsWith(prefix)) {
+                groupCatalogCache.remove(key);
+            }
+        }
+        for (Object key : userCursorCache.getKeys()) {
+            if (key instanceof String && ((String) key).startsWith(prefix)) {
+                userCursorCache.remove(key);
+            }
+        }
+        for (Object key : negativeCache.getKeys()) {
+            if (key instanceof String && StringUtils.substringAfter((String) key, "_").startsWith(prefix)) {
+                negativeCache.remove(key);
+            }
+        }
+        String providerPath = "/providers/" + providerKey + "/";
+        evictPrincipals(USER_PATH_CACHE, principals, providerPath);
+        evictPrincipals(GROUP_PATH_CACHE, principals, providerPath);
+        evictPrincipals(MEMBERSHIP_CACHE, principals, providerPath);
+        logger.debug("Caches of provider {} of site {} flushed", providerKey, siteKey);
+    }
+
     public void flushCaches() {
-        CacheHelper.flushEhcacheByName("org.jahia.services.usermanager.JahiaUserManagerService.userPathByUserNameCache", true);
-        CacheHelper.flushEhcacheByName("org.jahia.services.usermanager.JahiaGroupManagerService.groupPathByGroupNameCache", true);
-        CacheHelper.flushEhcacheByName("org.jahia.services.usermanager.JahiaGroupManagerService.membershipCache", true);
+        CacheHelper.flushEhcacheByName(USER_PATH_CACHE, true);
+        CacheHelper.flushEhcacheByName(GROUP_PATH_CACHE, true);
+        CacheHelper.flushEhcacheByName(MEMBERSHIP_CACHE, true);
         CacheHelper.flushEhcacheByName(USER_CACHE, true);
         CacheHelper.flushEhcacheByName(GROUP_CACHE, true);
+        CacheHelper.flushEhcacheByName(NEGATIVE_CACHE, true);
+        CacheHelper.flushEhcacheByName(GROUP_CATALOG_CACHE, true);
+        CacheHelper.flushEhcacheByName(USER_CURSOR_CACHE, true);
     }
 }
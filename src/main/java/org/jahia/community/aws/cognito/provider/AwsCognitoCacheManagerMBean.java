@@ -0,0 +1,26 @@
+package org.jahia.community.aws.cognito.provider;
+
+/**
+ * JMX view of the loads of the AWS Cognito caches of a node.
+ */
+public interface AwsCognitoCacheManagerMBean {
+    /**
+     * @return the number of loads sent to AWS Cognito on a cache miss
+     */
+    long getIssuedLoads();
+
+    /**
+     * @return the number of cache misses served by a load already running for the same key
+     */
+    long getCoalescedLoads();
+
+    /**
+     * @return the number of cache misses waiting for the load of another cluster node
+     */
+    long getLeasedLoads();
+
+    /**
+     * @return the number of expired entries served while AWS Cognito was unavailable
+     */
+    long getStaleHits();
+}
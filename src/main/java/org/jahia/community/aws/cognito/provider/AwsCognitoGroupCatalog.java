@@ -0,0 +1,126 @@
+package org.jahia.community.aws.cognito.provider;
+
+import org.apache.commons.lang.StringUtils;
+import org.jahia.community.aws.cognito.client.AwsCognitoGroup;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable list of the groups of a user pool sorted by lower-cased name, shared by every page of a group search.
+ */
+public class AwsCognitoGroupCatalog implements Serializable {
+    private static final long serialVersionUID = -2150952326722734105L;
+
+    public static final AwsCognitoGroupCatalog EMPTY = new AwsCognitoGroupCatalog(Collections.emptyList(), 0);
+
+    private final long version;
+    private final List<AwsCognitoGroup> groups;
+    private final String[] names;
+    private final String[] descriptions;
+    // built on the first search of each node, not replicated with the catalog
+    private transient volatile AwsCognitoNGramIndex nameIndex;
+    private transient volatile AwsCognitoNGramIndex descriptionIndex;
+
+    /**
+     * @param version identifies the load of the groups, a newer catalog has a greater version
+     */
+    public AwsCognitoGroupCatalog(Collection<AwsCognitoGroup> groups, long version) {
+        this.version = version;
+        List<AwsCognitoGroup> sortedGroups = new ArrayList<>(groups);
+        sortedGroups.sort(Comparator.comparing(group -> group.getName().toLowerCase(Locale.ROOT)));
+        this.groups = Collections.unmodifiableList(sortedGroups);
+        names = sortedGroups.stream().map(group -> group.getName().toLowerCase(Locale.ROOT)).toArray(String[]::new);
+        descriptions = sortedGroups.stream().map(group -> StringUtils.defaultString(group.getDescription()).toLowerCase(Locale.ROOT)).toArray(String[]::new);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return groups.size();
+    }
+
+    /**
+     * @return the groups sorted by lower-cased name
+     */
+    public List<AwsCognitoGroup> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Same as {@link #search(String, boolean, long, long)} on the group names only.
+     */
+    public List<AwsCognitoGroup> search(String pattern, long offset, long limit) {
+        return search(pattern, false, offset, limit);
+    }
+
+    /**
+     * @param pattern          <code>*</code> matches any sequence of characters, ignoring the case, e.g. <code>foo*</code>
+     *                         matches the names starting with foo; a pattern without wildcard matches the names containing it,
+     *                         null or <code>*</code> every name
+     * @param withDescriptions true to return the groups whose description matches the pattern too
+     * @param limit            the maximum number of groups returned, 0 or less for no limit
+     * @return a page of the matching groups, sorted by lower-cased name
+     */
+    public List<AwsCognitoGroup> search(String pattern, boolean withDescriptions, long offset, long limit) {
+        String value = StringUtils.defaultString(pattern).toLowerCase(Locale.ROOT);
+        if (!value.contains(AwsCognitoNGramIndex.WILDCARD)) {
+            value = AwsCognitoNGramIndex.WILDCARD + value + AwsCognitoNGramIndex.WILDCARD;
+        }
+        String[] segments = StringUtils.split(value, AwsCognitoNGramIndex.WILDCARD);
+        if (segments.length == 0) {
+            return page(groups, offset, limit);
+        }
+        int max = limit > 0 ? (int) Math.min(Integer.MAX_VALUE, Math.max(0, offset) + limit) : Integer.MAX_VALUE;
+        int[] positions = getNameIndex().search(value, segments, max);
+        if (withDescriptions) {
+            positions = AwsCognitoNGramIndex.union(positions, getDescriptionIndex().search(value, segments, max), max);
+        }
+        List<AwsCognitoGroup> matches = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            matches.add(groups.get(position));
+        }
+        return page(matches, offset, limit);
+    }
+
+    private AwsCognitoNGramIndex getNameIndex() {
+        AwsCognitoNGramIndex index = nameIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = nameIndex;
+                if (index == null) {
+                    index = new AwsCognitoNGramIndex(names, true, AwsCognitoNGramIndex.GRAM_LENGTH);
+                    nameIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private AwsCognitoNGramIndex getDescriptionIndex() {
+        AwsCognitoNGramIndex index = descriptionIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = descriptionIndex;
+                if (index == null) {
+                    index = new AwsCognitoNGramIndex(descriptions, false, AwsCognitoNGramIndex.GRAM_LENGTH);
+                    descriptionIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    static <T> List<T> page(List<T> list, long offset, long limit) {
+        int from = (int) Math.min(Math.max(0, offset), list.size());
+        int to = limit > 0 ? (int) Math.min(list.size(), from + limit) : list.size();
+        return Collections.unmodifiableList(list.subList(from, to));
+    }
+}
@@ -0,0 +1,44 @@
+package org.jahia.community.aws.cognito.provider;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Principals invalidated on one cluster node, replicated to the other nodes.
+ */
+public class AwsCognitoInvalidation implements Serializable {
+    private static final long serialVersionUID = 3409622427425162181L;
+
+    private final String origin;
+    private final String providerKey;
+    private final List<String> users;
+    private final List<String> groups;
+
+    public AwsCognitoInvalidation(String origin, String providerKey, Collection<String> users, Collection<String> groups) {
+        this.origin = origin;
+        this.providerKey = providerKey;
+        this.users = new ArrayList<>(users);
+        this.groups = new ArrayList<>(groups);
+    }
+
+    /**
+     * @return the identifier of the node which published the invalidation
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    public String getProviderKey() {
+        return providerKey;
+    }
+
+    public List<String> getUsers() {
+        return users;
+    }
+
+    public List<String> getGroups() {
+        return groups;
+    }
+}
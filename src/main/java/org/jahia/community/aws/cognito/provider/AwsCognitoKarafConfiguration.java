@@ -14,6 +14,8 @@ import java.util.Dictionary;
 public class AwsCognitoKarafConfiguration {
     private final String providerKey;
     private AwsCognitoUserGroupProvider awsCognitoUserGroupProvider;
+    private AwsCognitoClientService awsCognitoClientService;
+    private AwsCognitoCacheManager awsCognitoCacheManager;
 
     public AwsCognitoKarafConfiguration(Dictionary<String, ?> dictionary) {
         providerKey = computeProviderKey(dictionary);
@@ -42,24 +44,45 @@ public class AwsCognitoKarafConfiguration {
         return providerKey;
     }
 
+    public AwsCognitoUserGroupProvider getUserGroupProvider() {
+        return awsCognitoUserGroupProvider;
+    }
+
     public void setContext(ExternalUserGroupService externalUserGroupService, AwsCognitoCacheManager awsCognitoCacheManager, AwsCognitoClientService awsCognitoClientService, BundleContext bundleContext, Dictionary<String, ?> dictionary) {
+        this.awsCognitoClientService = awsCognitoClientService;
+        this.awsCognitoCacheManager = awsCognitoCacheManager;
         if (awsCognitoUserGroupProvider == null) {
             awsCognitoUserGroupProvider = new AwsCognitoUserGroupProvider(awsCognitoCacheManager, awsCognitoClientService);
             awsCognitoUserGroupProvider.setExternalUserGroupService(externalUserGroupService);
             awsCognitoUserGroupProvider.setBundleContext(bundleContext);
         } else {
             // Deactivate the provider before reconfiguring it.
+            awsCognitoUserGroupProvider.stop();
             awsCognitoUserGroupProvider.unregister();
         }
         awsCognitoUserGroupProvider.setKey(providerKey);
-        awsCognitoUserGroupProvider.setAwsCognitoConfiguration(new AwsCognitoConfiguration(dictionary));
+        AwsCognitoConfiguration previousConfiguration = awsCognitoUserGroupProvider.getAwsCognitoConfiguration();
+        AwsCognitoConfiguration awsCognitoConfiguration = new AwsCognitoConfiguration(dictionary);
+        // Register the new client before releasing the previous one so that it is kept when the credentials did not change
+        awsCognitoClientService.register(awsCognitoConfiguration);
+        if (previousConfiguration != null) {
+            awsCognitoClientService.unregister(previousConfiguration);
+        }
+        awsCognitoCacheManager.register(providerKey, awsCognitoConfiguration);
+        awsCognitoUserGroupProvider.setAwsCognitoConfiguration(awsCognitoConfiguration);
         // Activate (again)
         awsCognitoUserGroupProvider.register();
+        awsCognitoUserGroupProvider.start();
     }
 
     public void unregister() {
         if (awsCognitoUserGroupProvider != null) {
+            awsCognitoUserGroupProvider.stop();
             awsCognitoUserGroupProvider.unregister();
+            awsCognitoCacheManager.unregister(providerKey);
+            if (awsCognitoUserGroupProvider.getAwsCognitoConfiguration() != null) {
+                awsCognitoClientService.unregister(awsCognitoUserGroupProvider.getAwsCognitoConfiguration());
+            }
             awsCognitoUserGroupProvider = null;
         }
     }
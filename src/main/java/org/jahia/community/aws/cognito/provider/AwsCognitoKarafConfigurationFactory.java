@@ -1,5 +1,6 @@
 package org.jahia.community.aws.cognito.provider;
 
+import org.jahia.community.aws.cognito.api.AwsCognitoConfiguration;
 import org.jahia.community.aws.cognito.client.AwsCognitoClientService;
 import org.jahia.modules.external.users.ExternalUserGroupService;
 import org.osgi.framework.BundleContext;
@@ -16,8 +17,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.Dictionary;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 @Component(service = {AwsCognitoKarafConfigurationFactory.class, ManagedServiceFactory.class}, property = Constants.SERVICE_PID + "=org.jahia.community.aws.cognito.provider", immediate = true)
 public class AwsCognitoKarafConfigurationFactory implements ManagedServiceFactory {
@@ -33,8 +37,8 @@ public class AwsCognitoKarafConfigurationFactory implements ManagedServiceFactor
     private final Map<String, String> pidsByProviderKey;
 
     public AwsCognitoKarafConfigurationFactory() {
-        awsCognitoConfigurations = new HashMap<>();
-        pidsByProviderKey = new HashMap<>();
+        awsCognitoConfigurations = new ConcurrentHashMap<>();
+        pidsByProviderKey = new ConcurrentHashMap<>();
     }
 
     @Reference
@@ -81,8 +85,17 @@ public class AwsCognitoKarafConfigurationFactory implements ManagedServiceFactor
             awsCognitoConfigurations.put(pid, awsCognitoKarafConfiguration);
             deleteConfig(pidsByProviderKey.put(awsCognitoKarafConfiguration.getProviderKey(), pid));
         }
+        AwsCognitoUserGroupProvider previousProvider = awsCognitoKarafConfiguration.getUserGroupProvider();
+        AwsCognitoConfiguration previousConfiguration = previousProvider != null ? previousProvider.getAwsCognitoConfiguration() : null;
         awsCognitoKarafConfiguration.setContext(externalUserGroupService, awsCognitoCacheManager, awsCognitoClientService, bundleContext, dictionary);
-        awsCognitoCacheManager.flushCaches();
+        // Cached principals stay valid when only tuning properties changed
+        AwsCognitoConfiguration configuration = awsCognitoKarafConfiguration.getUserGroupProvider().getAwsCognitoConfiguration();
+        if (!configuration.hasSamePrincipals(previousConfiguration)) {
+            awsCognitoCacheManager.flushProvider(awsCognitoKarafConfiguration.getProviderKey(), configuration.getTargetSite());
+            if (previousConfiguration != null && !Objects.equals(previousConfiguration.getTargetSite(), configuration.getTargetSite())) {
+                awsCognitoCacheManager.flushProvider(awsCognitoKarafConfiguration.getProviderKey(), previousConfiguration.getTargetSite());
+            }
+        }
     }
 
     private void deleteConfig(String pid) {
@@ -105,8 +118,10 @@ public class AwsCognitoKarafConfigurationFactory implements ManagedServiceFactor
         String existingPid = awsCognitoKarafConfiguration != null ? pidsByProviderKey.get(awsCognitoKarafConfiguration.getProviderKey()) : null;
         if (existingPid != null && existingPid.equals(pid)) {
             pidsByProviderKey.remove(awsCognitoKarafConfiguration.getProviderKey());
+            AwsCognitoUserGroupProvider provider = awsCognitoKarafConfiguration.getUserGroupProvider();
+            String siteKey = provider != null && provider.getAwsCognitoConfiguration() != null ? provider.getAwsCognitoConfiguration().getTargetSite() : null;
             awsCognitoKarafConfiguration.unregister();
-            awsCognitoCacheManager.flushCaches();
+            awsCognitoCacheManager.flushProvider(awsCognitoKarafConfiguration.getProviderKey(), siteKey);
         }
     }
 
@@ -117,4 +132,11 @@ public class AwsCognitoKarafConfigurationFactory implements ManagedServiceFactor
     public String getConfigPID(String providerKey) {
         return pidsByProviderKey.get(providerKey);
     }
+
+    public List<AwsCognitoUserGroupProvider> getUserGroupProviders() {
+        return awsCognitoConfigurations.values().stream()
+                .map(AwsCognitoKarafConfiguration::getUserGroupProvider)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
 }
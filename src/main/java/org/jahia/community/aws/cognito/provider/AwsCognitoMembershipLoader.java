@@ -0,0 +1,83 @@
+package org.jahia.community.aws.cognito.provider;
+
+import org.jahia.community.aws.cognito.api.AwsCognitoConfiguration;
+import org.jahia.community.aws.cognito.client.AwsCognitoClientService;
+import org.jahia.community.aws.cognito.client.AwsCognitoFutures;
+import org.jahia.community.aws.cognito.client.AwsCognitoGroup;
+import org.jahia.community.aws.cognito.client.AwsCognitoPacer;
+import org.jahia.community.aws.cognito.client.AwsCognitoUser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Loads the memberships of every user with one ListUsersInGroup walk per group,
+ * instead of one AdminListGroupsForUser call per user. The walks of several groups run at the same time,
+ * up to the maximum number of concurrent requests of the provider, without holding a thread per walk.
+ */
+public class AwsCognitoMembershipLoader {
+    private final AwsCognitoClientService awsCognitoClientService;
+    private final AwsCognitoConfiguration awsCognitoConfiguration;
+    private final AwsCognitoPacer pacer;
+
+    public AwsCognitoMembershipLoader(AwsCognitoClientService awsCognitoClientService, AwsCognitoConfiguration awsCognitoConfiguration, AwsCognitoPacer pacer) {
+        this.awsCognitoClientService = awsCognitoClientService;
+        this.awsCognitoConfiguration = awsCognitoConfiguration;
+        this.pacer = pacer;
+    }
+
+    /**
+     * @throws RuntimeException if the members of a group cannot be read
+     */
+    public AwsCognitoMemberships load(Collection<AwsCognitoGroup> groups) {
+        return load(groups, null);
+    }
+
+    /**
+     * @param memberConsumer receives each member read with the attributes of the cached user profiles, once per group
+     *                       it belongs to, possibly from several threads; null to only read the subs of the members
+     * @throws RuntimeException if the members of a group cannot be read
+     */
+    public AwsCognitoMemberships load(Collection<AwsCognitoGroup> groups, Consumer<AwsCognitoUser> memberConsumer) {
+        return AwsCognitoFutures.join(loadAsync(groups, memberConsumer));
+    }
+
+    /**
+     * @param memberConsumer receives each member read with the attributes of the cached user profiles, once per group
+     *                       it belongs to, possibly from several threads; null to only read the subs of the members
+     * @return completed exceptionally if the members of a group cannot be read
+     */
+    public CompletableFuture<AwsCognitoMemberships> loadAsync(Collection<AwsCognitoGroup> groups, Consumer<AwsCognitoUser> memberConsumer) {
+        AwsCognitoMemberships memberships = new AwsCognitoMemberships(groups.stream().map(AwsCognitoGroup::getName).toArray(String[]::new));
+        Iterator<AwsCognitoGroup> remainingGroups = new ArrayList<>(groups).iterator();
+        CompletableFuture<?>[] walkers = new CompletableFuture<?>[Math.min(groups.size(), awsCognitoConfiguration.getMaxConcurrentRequests())];
+        for (int i = 0; i < walkers.length; i++) {
+            walkers[i] = walkNextGroup(remainingGroups, memberships, memberConsumer);
+        }
+        return CompletableFuture.allOf(walkers).thenApply(v -> memberships);
+    }
+
+    /**
+     * Walks the members of the remaining groups one group after the other.
+     */
+    private CompletableFuture<Void> walkNextGroup(Iterator<AwsCognitoGroup> remainingGroups, AwsCognitoMemberships memberships, Consumer<AwsCognitoUser> memberConsumer) {
+        AwsCognitoGroup group;
+        synchronized (remainingGroups) {
+            if (!remainingGroups.hasNext()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            group = remainingGroups.next();
+        }
+        return awsCognitoClientService.scanGroupMembersAsync(awsCognitoConfiguration, group.getName(), member -> {
+            synchronized (memberships) {
+                memberships.addMember(group.getName(), member.getUsername());
+            }
+            if (memberConsumer != null) {
+                memberConsumer.accept(member);
+            }
+        }, pacer, memberConsumer != null ? awsCognitoConfiguration.getUserAttributes() : AwsCognitoUser.MEMBERSHIP_ATTRIBUTES).thenCompose(v -> walkNextGroup(remainingGroups, memberships, memberConsumer));
+    }
+}
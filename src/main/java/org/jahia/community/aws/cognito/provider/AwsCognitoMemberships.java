@@ -0,0 +1,67 @@
+package org.jahia.community.aws.cognito.provider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Group memberships of a user pool in both directions. The groups of a user are stored as a bit set of group indexes,
+ * which keeps the reverse index small when there are many users and few groups.
+ */
+public class AwsCognitoMemberships {
+    private final String[] groupNames;
+    private final Map<String, Integer> groupIndexes;
+    private final List<List<String>> membersByGroup;
+    private final Map<String, BitSet> groupsByUser;
+
+    AwsCognitoMemberships(String[] groupNames) {
+        this.groupNames = groupNames.clone();
+        Arrays.sort(this.groupNames);
+        groupIndexes = new HashMap<>(this.groupNames.length * 2);
+        membersByGroup = new ArrayList<>(this.groupNames.length);
+        for (int i = 0; i < this.groupNames.length; i++) {
+            groupIndexes.put(this.groupNames[i], i);
+            membersByGroup.add(new ArrayList<>());
+        }
+        groupsByUser = new HashMap<>();
+    }
+
+    void addMember(String groupName, String sub) {
+        Integer index = groupIndexes.get(groupName);
+        if (index != null) {
+            membersByGroup.get(index).add(sub);
+            groupsByUser.computeIfAbsent(sub, key -> new BitSet(groupNames.length)).set(index);
+        }
+    }
+
+    /**
+     * @return the subs of the members of the group
+     */
+    public List<String> getMembers(String groupName) {
+        Integer index = groupIndexes.get(groupName);
+        return index == null ? Collections.emptyList() : Collections.unmodifiableList(membersByGroup.get(index));
+    }
+
+    /**
+     * @return the names of the groups of the user, sorted
+     */
+    public List<String> getGroups(String sub) {
+        BitSet groups = groupsByUser.get(sub);
+        if (groups == null) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<>(groups.cardinality());
+        for (int i = groups.nextSetBit(0); i >= 0; i = groups.nextSetBit(i + 1)) {
+            names.add(groupNames[i]);
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    public int getUserCount() {
+        return groupsByUser.size();
+    }
+}
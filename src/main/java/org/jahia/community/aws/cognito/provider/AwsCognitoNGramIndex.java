@@ -0,0 +1,308 @@
+package org.jahia.community.aws.cognito.provider;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * N-gram index of lower-cased keys, e.g. the group names of a catalog or an attribute of the users of a snapshot.
+ * Every substring of up to <code>gramLength</code> characters of a key points to the sorted positions of the keys
+ * containing it: a short segment is answered by one posting list, a longer one by the intersection of the posting
+ * lists of its grams, the candidates are then checked against the whole pattern.
+ * An unsorted index is updated by copy: the copy shares the posting lists of the grams of the unchanged keys.
+ */
+class AwsCognitoNGramIndex {
+    static final String WILDCARD = "*";
+    static final int GRAM_LENGTH = 3;
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final String[] keys;
+    // keys sorted in natural order, prefixes are then looked up with a binary search
+    private final boolean sorted;
+    private final int gramLength;
+    private final Map<String, int[]> postings;
+
+    /**
+     * @param keys       the lower-cased keys, null for a missing key
+     * @param gramLength the length of the longest indexed grams, 0 to only index the prefixes of sorted keys
+     */
+    AwsCognitoNGramIndex(String[] keys, boolean sorted, int gramLength) {
+        this.keys = keys;
+        this.sorted = sorted;
+        this.gramLength = gramLength;
+        // the first element of a posting list under construction holds its size
+        Map<String, int[]> lists = new HashMap<>();
+        for (int position = 0; position < keys.length; position++) {
+            String key = StringUtils.defaultString(keys[position]);
+            for (int length = 1; length <= gramLength; length++) {
+                for (int start = 0; start + length <= key.length(); start++) {
+                    add(lists, key.substring(start, start + length), position);
+                }
+            }
+        }
+        postings = new HashMap<>(lists.size() * 4 / 3 + 1);
+        for (Map.Entry<String, int[]> entry : lists.entrySet()) {
+            int[] list = entry.getValue();
+            postings.put(entry.getKey(), Arrays.copyOfRange(list, 1, list[0] + 1));
+        }
+    }
+
+    private AwsCognitoNGramIndex(String[] keys, int gramLength, Map<String, int[]> postings) {
+        this.keys = keys;
+        this.sorted = false;
+        this.gramLength = gramLength;
+        this.postings = postings;
+    }
+
+    /**
+     * Copies the index with some of its keys changed, this index is left untouched and can still be searched.
+     *
+     * @param changes the positions of the changed keys -> the new lower-cased key, null for a removed key
+     * @param size    the number of positions of the copy, positions past the current ones are added
+     * @return the updated copy, only the posting lists of the grams of the changed keys are copied
+     */
+    AwsCognitoNGramIndex update(Map<Integer, String> changes, int size) {
+        if (sorted) {
+            throw new UnsupportedOperationException("The positions of a sorted index cannot be changed");
+        }
+        String[] updatedKeys = Arrays.copyOf(keys, Math.max(size, keys.length));
+        Map<String, List<Integer>> removedPositions = new HashMap<>();
+        Map<String, List<Integer>> addedPositions = new HashMap<>();
+        for (Map.Entry<Integer, String> change : changes.entrySet()) {
+            int position = change.getKey();
+            Set<String> previousGrams = getGrams(position < keys.length ? keys[position] : null);
+            Set<String> grams = getGrams(change.getValue());
+            for (String gram : previousGrams) {
+                if (!grams.contains(gram)) {
+                    removedPositions.computeIfAbsent(gram, key -> new ArrayList<>()).add(position);
+                }
+            }
+            for (String gram : grams) {
+                if (!previousGrams.contains(gram)) {
+                    addedPositions.computeIfAbsent(gram, key -> new ArrayList<>()).add(position);
+                }
+            }
+            updatedKeys[position] = change.getValue();
+        }
+        Set<String> changedGrams = new HashSet<>(removedPositions.keySet());
+        changedGrams.addAll(addedPositions.keySet());
+        Map<String, int[]> updatedPostings = new HashMap<>(postings);
+        for (String gram : changedGrams) {
+            int[] list = difference(postings.getOrDefault(gram, NO_POSITIONS), toSortedArray(removedPositions.get(gram)));
+            list = union(list, toSortedArray(addedPositions.get(gram)), Integer.MAX_VALUE);
+            if (list.length == 0) {
+                updatedPostings.remove(gram);
+            } else {
+                updatedPostings.put(gram, list);
+            }
+        }
+        return new AwsCognitoNGramIndex(updatedKeys, gramLength, updatedPostings);
+    }
+
+    private Set<String> getGrams(String key) {
+        if (key == null) {
+            return Collections.emptySet();
+        }
+        Set<String> grams = new HashSet<>();
+        for (int length = 1; length <= gramLength; length++) {
+            for (int start = 0; start + length <= key.length(); start++) {
+                grams.add(key.substring(start, start + length));
+            }
+        }
+        return grams;
+    }
+
+    private static int[] toSortedArray(List<Integer> positions) {
+        if (positions == null) {
+            return NO_POSITIONS;
+        }
+        int[] array = new int[positions.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = positions.get(i);
+        }
+        Arrays.sort(array);
+        return array;
+    }
+
+    private static void add(Map<String, int[]> lists, String gram, int position) {
+        int[] list = lists.get(gram);
+        if (list == null) {
+            list = new int[4];
+        } else if (list[0] > 0 && list[list[0]] == position) {
+            // the gram appears several times in the key
+            return;
+        } else if (list[0] + 1 == list.length) {
+            list = Arrays.copyOf(list, list.length * 2);
+        }
+        list[++list[0]] = position;
+        lists.put(gram, list);
+    }
+
+    /**
+     * @param pattern  lower-cased pattern holding at least one non wildcard character, <code>*</code> matches any sequence,
+     *                 a pattern without wildcard matches the equal keys
+     * @param segments the parts of the pattern between the wildcards
+     * @param max      the maximum number of positions returned
+     * @return the sorted positions of the first keys matching the pattern
+     */
+    int[] search(String pattern, String[] segments, int max) {
+        int[] candidates = getCandidates(pattern, segments);
+        int[] matches = new int[Math.min(max, candidates.length)];
+        int count = 0;
+        for (int i = 0; i < candidates.length && count < matches.length; i++) {
+            if (keys[candidates[i]] != null && matches(keys[candidates[i]], pattern, segments)) {
+                matches[count++] = candidates[i];
+            }
+        }
+        return count == matches.length ? matches : Arrays.copyOf(matches, count);
+    }
+
+    private int[] getCandidates(String pattern, String[] segments) {
+        if (sorted && !pattern.startsWith(WILDCARD)) {
+            return range(lowerBound(segments[0]), lowerBound(segments[0] + Character.MAX_VALUE));
+        }
+        if (gramLength == 0) {
+            return range(0, keys.length);
+        }
+        String longest = segments[0];
+        for (String segment : segments) {
+            if (segment.length() > longest.length()) {
+                longest = segment;
+            }
+        }
+        if (longest.length() <= gramLength) {
+            return postings.getOrDefault(longest, NO_POSITIONS);
+        }
+        int[][] lists = new int[longest.length() - gramLength + 1][];
+        for (int start = 0; start < lists.length; start++) {
+            lists[start] = postings.getOrDefault(longest.substring(start, start + gramLength), NO_POSITIONS);
+        }
+        // intersect the shortest lists first
+        Arrays.sort(lists, (first, second) -> Integer.compare(first.length, second.length));
+        int[] candidates = lists[0];
+        for (int i = 1; i < lists.length && candidates.length > 0; i++) {
+            candidates = intersect(candidates, lists[i]);
+        }
+        return candidates;
+    }
+
+    static int[] range(int from, int to) {
+        int[] range = new int[Math.max(0, to - from)];
+        for (int i = 0; i < range.length; i++) {
+            range[i] = from + i;
+        }
+        return range;
+    }
+
+    static int[] intersect(int[] first, int[] second) {
+        int[] intersection = new int[Math.min(first.length, second.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                intersection[count++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(intersection, count);
+    }
+
+    /**
+     * @return the positions of the first sorted list missing from the second one
+     */
+    static int[] difference(int[] first, int[] second) {
+        if (second.length == 0) {
+            return first;
+        }
+        int[] difference = new int[first.length];
+        int count = 0;
+        int j = 0;
+        for (int position : first) {
+            while (j < second.length && second[j] < position) {
+                j++;
+            }
+            if (j == second.length || second[j] != position) {
+                difference[count++] = position;
+            }
+        }
+        return Arrays.copyOf(difference, count);
+    }
+
+    /**
+     * @return the index of the first key greater than or equal to the value
+     */
+    private int lowerBound(String value) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].compareTo(value) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    static boolean matches(String key, String pattern, String[] segments) {
+        int from = 0;
+        int first = 0;
+        if (!pattern.startsWith(WILDCARD)) {
+            if (!key.startsWith(segments[0])) {
+                return false;
+            }
+            from = segments[0].length();
+            first = 1;
+        }
+        boolean endAnchored = !pattern.endsWith(WILDCARD);
+        if (first == segments.length) {
+            return !endAnchored || key.length() == from;
+        }
+        for (int i = first; i < segments.length; i++) {
+            if (i == segments.length - 1 && endAnchored) {
+                return key.length() - segments[i].length() >= from && key.endsWith(segments[i]);
+            }
+            int at = key.indexOf(segments[i], from);
+            if (at < 0) {
+                return false;
+            }
+            from = at + segments[i].length();
+        }
+        return true;
+    }
+
+    /**
+     * @return the first positions of both sorted lists, without duplicates
+     */
+    static int[] union(int[] first, int[] second, int max) {
+        int[] union = new int[Math.min(max, first.length + second.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (count < union.length && (i < first.length || j < second.length)) {
+            if (j == second.length || (i < first.length && first[i] < second[j])) {
+                union[count++] = first[i++];
+            } else if (i == first.length || second[j] < first[i]) {
+                union[count++] = second[j++];
+            } else {
+                union[count++] = first[i++];
+                j++;
+            }
+        }
+        return count == union.length ? union : Arrays.copyOf(union, count);
+    }
+}
@@ -0,0 +1,120 @@
+package org.jahia.community.aws.cognito.provider;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of the principals (sub, email, username and group names) of a user pool.
+ * A negative answer means the principal is definitely not in the user pool, a positive one has to be checked.
+ */
+public class AwsCognitoPrincipalFilter {
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+    private static final int MIN_EXPECTED_ENTRIES = 1024;
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    private AwsCognitoPrincipalFilter(long expectedEntries) {
+        long n = Math.max(MIN_EXPECTED_ENTRIES, expectedEntries);
+        long m = (long) Math.ceil(-n * Math.log(FALSE_POSITIVE_PROBABILITY) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, (m + 63) >>> 6);
+        bits = new AtomicLongArray(words);
+        bitCount = (long) words << 6;
+        hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+    }
+
+    public boolean mightContain(String principal) {
+        if (principal == null) {
+            return false;
+        }
+        long hash = hash(principal);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = index(h1, h2, i);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a principal discovered after the filter was built, e.g. a user created since the last scan.
+     */
+    public void put(String principal) {
+        if (principal != null) {
+            put(hash(principal));
+        }
+    }
+
+    private void put(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = index(h1, h2, i);
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            long value;
+            do {
+                value = bits.get(word);
+            } while ((value & mask) == 0 && !bits.compareAndSet(word, value, value | mask));
+        }
+    }
+
+    private long index(int h1, int h2, int i) {
+        int combined = h1 + i * h2;
+        if (combined < 0) {
+            combined = ~combined;
+        }
+        return combined % bitCount;
+    }
+
+    private static long hash(String principal) {
+        // FNV-1a on the lower-cased principal followed by the MurmurHash3 finalizer
+        String value = principal.toLowerCase(Locale.ROOT);
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Collects the principal hashes during a scan, the filter is sized once the number of principals is known.
+     */
+    public static class Builder {
+        private long[] hashes = new long[MIN_EXPECTED_ENTRIES];
+        private int size;
+
+        public Builder add(String principal) {
+            if (principal != null) {
+                if (size == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, hashes.length * 2);
+                }
+                hashes[size++] = hash(principal);
+            }
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public AwsCognitoPrincipalFilter build() {
+            AwsCognitoPrincipalFilter filter = new AwsCognitoPrincipalFilter(size);
+            for (int i = 0; i < size; i++) {
+                filter.put(hashes[i]);
+            }
+            return filter;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.jahia.community.aws.cognito.provider;
+
+import org.jahia.community.aws.cognito.api.AwsCognitoConstants;
+import org.jahia.community.aws.cognito.client.AwsCognitoGroup;
+import org.jahia.community.aws.cognito.client.AwsCognitoUser;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable copy of the users, groups and memberships of a user pool, built by a synchronization.
+ */
+public class AwsCognitoSnapshot {
+    private final Map<String, AwsCognitoUser> usersBySub;
+    // email or AWS username -> sub
+    private final Map<String, String> subsByAlias;
+    private final Map<String, AwsCognitoGroup> groupsByName;
+    // kept apart from the users and groups, which may be shared with the previous snapshot while it is still served
+    private final AwsCognitoMemberships memberships;
+    private final AwsCognitoGroupCatalog groupCatalog;
+    private final AwsCognitoUserIndex userIndex;
+    private final long timestamp;
+
+    private AwsCognitoSnapshot(Builder builder) {
+        usersBySub = builder.usersBySub;
+        subsByAlias = builder.subsByAlias;
+        groupsByName = builder.groupsByName;
+        memberships = builder.memberships;
+        timestamp = System.currentTimeMillis();
+        groupCatalog = builder.groupCatalog != null ? builder.groupCatalog : new AwsCognitoGroupCatalog(groupsByName.values(), timestamp);
+        // built by the synchronization, searches never wait for it
+        userIndex = builder.previousUserIndex != null ? builder.previousUserIndex.update(builder.removedUsers, builder.addedUsers)
+                : new AwsCognitoUserIndex(usersBySub.values());
+    }
+
+    /**
+     * @param key the sub, email or AWS username of the user
+     */
+    public AwsCognitoUser getUser(String key) {
+        AwsCognitoUser awsCognitoUser = usersBySub.get(key);
+        if (awsCognitoUser == null && subsByAlias.containsKey(key)) {
+            awsCognitoUser = usersBySub.get(subsByAlias.get(key));
+        }
+        return awsCognitoUser;
+    }
+
+    public AwsCognitoGroup getGroup(String groupName) {
+        return groupsByName.get(groupName);
+    }
+
+    /**
+     * @return the subs of the members of the group
+     */
+    public List<String> getMembers(String groupName) {
+        return memberships != null ? memberships.getMembers(groupName) : Collections.emptyList();
+    }
+
+    /**
+     * @param sub the sub of the user
+     * @return the names of the groups of the user, sorted
+     */
+    public List<String> getMembership(String sub) {
+        return memberships != null ? memberships.getGroups(sub) : Collections.emptyList();
+    }
+
+    /**
+     * @return the groups sorted by lower-cased name
+     */
+    public List<AwsCognitoGroup> getGroups() {
+        return groupCatalog.getGroups();
+    }
+
+    public AwsCognitoGroupCatalog getGroupCatalog() {
+        return groupCatalog;
+    }
+
+    public AwsCognitoUserIndex getUserIndex() {
+        return userIndex;
+    }
+
+    public Collection<AwsCognitoUser> getUsers() {
+        return Collections.unmodifiableCollection(usersBySub.values());
+    }
+
+    public int getUserCount() {
+        return usersBySub.size();
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public static class Builder {
+        private final Map<String, AwsCognitoUser> usersBySub = new HashMap<>();
+        private final Map<String, String> subsByAlias = new HashMap<>();
+        private final Map<String, AwsCognitoGroup> groupsByName = new HashMap<>();
+        private AwsCognitoMemberships memberships;
+        private AwsCognitoGroupCatalog groupCatalog;
+        private AwsCognitoUserIndex previousUserIndex;
+        private Collection<AwsCognitoUser> removedUsers;
+        private Collection<AwsCognitoUser> addedUsers;
+
+        public Builder addUser(AwsCognitoUser awsCognitoUser) {
+            usersBySub.put(awsCognitoUser.getUsername(), awsCognitoUser);
+            addAlias((String) awsCognitoUser.getAttributes().get(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL), awsCognitoUser.getUsername());
+            addAlias((String) awsCognitoUser.getAttributes().get(AwsCognitoConstants.AWS_USERNAME), awsCognitoUser.getUsername());
+            return this;
+        }
+
+        private void addAlias(String alias, String sub) {
+            if (alias != null && !alias.equals(sub)) {
+                subsByAlias.put(alias, sub);
+            }
+        }
+
+        public Builder addGroup(AwsCognitoGroup awsCognitoGroup) {
+            groupsByName.put(awsCognitoGroup.getName(), awsCognitoGroup);
+            return this;
+        }
+
+        public AwsCognitoGroup getGroup(String groupName) {
+            return groupsByName.get(groupName);
+        }
+
+        public Builder setMemberships(AwsCognitoMemberships memberships) {
+            this.memberships = memberships;
+            return this;
+        }
+
+        /**
+         * Reuses the group catalog of the previous snapshot, when no group was created, modified or deleted since.
+         */
+        public Builder setGroupCatalog(AwsCognitoGroupCatalog groupCatalog) {
+            this.groupCatalog = groupCatalog;
+            return this;
+        }
+
+        /**
+         * Updates the user index of the previous snapshot instead of indexing every user again.
+         *
+         * @param removedUsers the users deleted or modified since the previous snapshot
+         * @param addedUsers   the users created, and the new version of the modified users
+         */
+        public Builder setUserIndexChanges(AwsCognitoUserIndex previousUserIndex, Collection<AwsCognitoUser> removedUsers, Collection<AwsCognitoUser> addedUsers) {
+            this.previousUserIndex = previousUserIndex;
+            this.removedUsers = removedUsers;
+            this.addedUsers = addedUsers;
+            return this;
+        }
+
+        public AwsCognitoSnapshot build() {
+            return new AwsCognitoSnapshot(this);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.jahia.community.aws.cognito.provider;
+
+/**
+ * Changes applied by a synchronization cycle.
+ */
+public class AwsCognitoSyncStatistics {
+    private final boolean full;
+    private final int usersCreated;
+    private final int usersModified;
+    private final int usersDisabled;
+    private final int usersDeleted;
+    private final int membershipsChanged;
+    private final int groupsCreated;
+    private final int groupsModified;
+    private final int groupsDeleted;
+    private final long duration;
+    private final long timestamp;
+
+    AwsCognitoSyncStatistics(boolean full, int usersCreated, int usersModified, int usersDisabled, int usersDeleted, int membershipsChanged,
+                             int groupsCreated, int groupsModified, int groupsDeleted, long duration) {
+        this.full = full;
+        this.usersCreated = usersCreated;
+        this.usersModified = usersModified;
+        this.usersDisabled = usersDisabled;
+        this.usersDeleted = usersDeleted;
+        this.membershipsChanged = membershipsChanged;
+        this.groupsCreated = groupsCreated;
+        this.groupsModified = groupsModified;
+        this.groupsDeleted = groupsDeleted;
+        this.duration = duration;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * @return true for the first cycle, which loads the whole user pool
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    public int getUsersCreated() {
+        return usersCreated;
+    }
+
+    public int getUsersModified() {
+        return usersModified;
+    }
+
+    public int getUsersDisabled() {
+        return usersDisabled;
+    }
+
+    public int getUsersDeleted() {
+        return usersDeleted;
+    }
+
+    /**
+     * @return the number of users whose groups changed
+     */
+    public int getMembershipsChanged() {
+        return membershipsChanged;
+    }
+
+    public int getGroupsCreated() {
+        return groupsCreated;
+    }
+
+    public int getGroupsModified() {
+        return groupsModified;
+    }
+
+    public int getGroupsDeleted() {
+        return groupsDeleted;
+    }
+
+    /**
+     * @return the duration of the cycle in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "users created: " + usersCreated + ", modified: " + usersModified + ", disabled: " + usersDisabled + ", deleted: " + usersDeleted
+                + ", memberships changed: " + membershipsChanged
+                + ", groups created: " + groupsCreated + ", modified: " + groupsModified + ", deleted: " + groupsDeleted
+                + ", duration: " + duration + " ms";
+    }
+}
@@ -0,0 +1,160 @@
+package org.jahia.community.aws.cognito.provider;
+
+import org.jahia.community.aws.cognito.api.AwsCognitoConfiguration;
+import org.jahia.community.aws.cognito.client.AwsCognitoClientService;
+import org.jahia.community.aws.cognito.client.AwsCognitoGroup;
+import org.jahia.community.aws.cognito.client.AwsCognitoPacer;
+import org.jahia.community.aws.cognito.client.AwsCognitoUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads the whole user pool of a provider: users, groups and the members of every group.
+ * When a previous snapshot is given, the entries that did not change since are reused, only the changed users
+ * are indexed again and only the changed principals are evicted from the caches.
+ */
+public class AwsCognitoSynchronizer {
+    private static final Logger logger = LoggerFactory.getLogger(AwsCognitoSynchronizer.class);
+
+    private final AwsCognitoClientService awsCognitoClientService;
+    private final AwsCognitoCacheManager awsCognitoCacheManager;
+    private final AwsCognitoConfiguration awsCognitoConfiguration;
+    private final String providerKey;
+    private final String siteKey;
+    private AwsCognitoSyncStatistics statistics;
+
+    public AwsCognitoSynchronizer(AwsCognitoClientService awsCognitoClientService, AwsCognitoCacheManager awsCognitoCacheManager, AwsCognitoConfiguration awsCognitoConfiguration, String providerKey, String siteKey) {
+        this.awsCognitoClientService = awsCognitoClientService;
+        this.awsCognitoCacheManager = awsCognitoCacheManager;
+        this.awsCognitoConfiguration = awsCognitoConfiguration;
+        this.providerKey = providerKey;
+        this.siteKey = siteKey;
+    }
+
+    /**
+     * @param previous the snapshot of the last synchronization, null for a full synchronization
+     * @throws RuntimeException if the user pool cannot be fully read, the previous snapshot is then left untouched
+     */
+    public AwsCognitoSnapshot synchronize(AwsCognitoSnapshot previous) {
+        long start = System.currentTimeMillis();
+        AwsCognitoPacer pacer = new AwsCognitoPacer(awsCognitoConfiguration.getSyncRateLimit());
+        AwsCognitoSnapshot.Builder builder = new AwsCognitoSnapshot.Builder();
+
+        // AWS Cognito cannot list the users modified since a date, the users are compared to the previous snapshot instead
+        Set<String> subs = new HashSet<>();
+        List<AwsCognitoUser> createdUsers = new ArrayList<>();
+        List<AwsCognitoUser> modifiedUsers = new ArrayList<>();
+        List<AwsCognitoUser> disabledUsers = new ArrayList<>();
+        // previous version of the modified, disabled and deleted users
+        List<AwsCognitoUser> replacedUsers = new ArrayList<>();
+        awsCognitoClientService.scanUsers(awsCognitoConfiguration, user -> {
+            subs.add(user.getUsername());
+            AwsCognitoUser previousUser = previous != null ? previous.getUser(user.getUsername()) : null;
+            if (previousUser != null && isUnchanged(previousUser, user)) {
+                builder.addUser(previousUser);
+                return;
+            }
+            if (previousUser == null) {
+                createdUsers.add(user);
+            } else if (previousUser.isEnabled() && !user.isEnabled()) {
+                replacedUsers.add(previousUser);
+                disabledUsers.add(user);
+            } else {
+                replacedUsers.add(previousUser);
+                modifiedUsers.add(user);
+            }
+            user.cacheJahiaUser(providerKey, siteKey);
+            builder.addUser(user);
+        }, pacer);
+
+        List<AwsCognitoGroup> groups = new ArrayList<>();
+        Set<String> changedGroups = new HashSet<>();
+        int[] groupsCreated = new int[1];
+        awsCognitoClientService.scanGroups(awsCognitoConfiguration, group -> {
+            AwsCognitoGroup previousGroup = previous != null ? previous.getGroup(group.getName()) : null;
+            if (previousGroup != null && group.getLastModifiedDate() > 0 && previousGroup.getLastModifiedDate() == group.getLastModifiedDate()) {
+                groups.add(previousGroup);
+                return;
+            }
+            if (previousGroup == null) {
+                groupsCreated[0]++;
+            }
+            changedGroups.add(group.getName());
+            group.cacheGroup(siteKey);
+            groups.add(group);
+        }, pacer);
+        int groupsModified = changedGroups.size() - groupsCreated[0];
+        groups.forEach(builder::addGroup);
+        AwsCognitoMemberships memberships = new AwsCognitoMembershipLoader(awsCognitoClientService, awsCognitoConfiguration, pacer).load(groups);
+        builder.setMemberships(memberships);
+
+        List<AwsCognitoUser> evictedUsers = new ArrayList<>();
+        int usersDeleted = 0;
+        int membershipsChanged = 0;
+        int groupsDeleted = 0;
+        if (previous != null) {
+            for (AwsCognitoUser previousUser : previous.getUsers()) {
+                if (!subs.contains(previousUser.getUsername())) {
+                    usersDeleted++;
+                    evictedUsers.add(previousUser);
+                    replacedUsers.add(previousUser);
+                } else if (!previous.getMembership(previousUser.getUsername()).equals(memberships.getGroups(previousUser.getUsername()))) {
+                    membershipsChanged++;
+                    evictedUsers.add(previousUser);
+                }
+            }
+            for (AwsCognitoGroup previousGroup : previous.getGroups()) {
+                if (builder.getGroup(previousGroup.getName()) == null) {
+                    groupsDeleted++;
+                    changedGroups.add(previousGroup.getName());
+                } else if (!previous.getMembers(previousGroup.getName()).equals(memberships.getMembers(previousGroup.getName()))) {
+                    changedGroups.add(previousGroup.getName());
+                }
+            }
+            evictedUsers.addAll(createdUsers);
+            evictedUsers.addAll(modifiedUsers);
+            evictedUsers.addAll(disabledUsers);
+
+            // only the changed users are indexed again, the catalog only changes with the groups
+            List<AwsCognitoUser> addedUsers = new ArrayList<>(createdUsers);
+            addedUsers.addAll(modifiedUsers);
+            addedUsers.addAll(disabledUsers);
+            builder.setUserIndexChanges(previous.getUserIndex(), replacedUsers, addedUsers);
+            if (groupsCreated[0] == 0 && groupsModified == 0 && groupsDeleted == 0) {
+                builder.setGroupCatalog(previous.getGroupCatalog());
+            }
+        }
+        AwsCognitoSnapshot snapshot = builder.build();
+        if (previous != null) {
+            awsCognitoCacheManager.evictUsers(providerKey, siteKey, evictedUsers);
+            awsCognitoCacheManager.evictGroups(providerKey, siteKey, changedGroups);
+        }
+
+        statistics = new AwsCognitoSyncStatistics(previous == null, createdUsers.size(), modifiedUsers.size(), disabledUsers.size(), usersDeleted,
+                membershipsChanged, groupsCreated[0], groupsModified, groupsDeleted, System.currentTimeMillis() - start);
+        logger.info("Provider {} synchronized: {} users and {} groups, {}", providerKey, snapshot.getUserCount(), snapshot.getGroups().size(), statistics);
+        return snapshot;
+    }
+
+    private static boolean isUnchanged(AwsCognitoUser previousUser, AwsCognitoUser user) {
+        if (previousUser.isEnabled() != user.isEnabled()) {
+            return false;
+        }
+        if (user.getLastModifiedDate() > 0) {
+            return previousUser.getLastModifiedDate() == user.getLastModifiedDate();
+        }
+        return previousUser.getAttributes().equals(user.getAttributes());
+    }
+
+    /**
+     * @return the changes applied by the last call to {@link #synchronize(AwsCognitoSnapshot)}
+     */
+    public AwsCognitoSyncStatistics getStatistics() {
+        return statistics;
+    }
+}
@@ -6,7 +6,10 @@ import org.jahia.community.aws.cognito.api.AwsCognitoConfiguration;
 import org.jahia.community.aws.cognito.api.AwsCognitoConstants;
 import org.jahia.community.aws.cognito.client.AwsCognitoClientService;
 import org.jahia.community.aws.cognito.client.AwsCognitoGroup;
+import org.jahia.community.aws.cognito.client.AwsCognitoPacer;
+import org.jahia.community.aws.cognito.client.AwsCognitoUnavailableException;
 import org.jahia.community.aws.cognito.client.AwsCognitoUser;
+import org.jahia.community.aws.cognito.client.AwsCognitoUserPage;
 import org.jahia.exceptions.JahiaRuntimeException;
 import org.jahia.modules.external.users.BaseUserGroupProvider;
 import org.jahia.modules.external.users.GroupNotFoundException;
@@ -19,31 +22,377 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class AwsCognitoUserGroupProvider extends BaseUserGroupProvider {
     private static final Logger logger = LoggerFactory.getLogger(AwsCognitoUserGroupProvider.class);
 
     private static final String PROP_USERNAME = "username";
     private static final String PROP_GROUPNAME = "groupname";
+    private static final String PROP_SEARCH_OPERATION = "multi_criteria_search_op";
+    private static final String SEARCH_OPERATION_AND = "and";
+    // Jahia user property -> attribute searchable by the ListUsers filter of AWS Cognito
+    private static final Map<String, String> LIST_USERS_ATTRIBUTES;
+
+    static {
+        Map<String, String> listUsersAttributes = new HashMap<>();
+        // the Jahia username is the sub, a random identifier whose prefix means nothing: a username prefix matches
+        // the AWS Cognito username instead, which the index of the snapshot matches too, an exact username is the sub
+        listUsersAttributes.put(PROP_USERNAME, "username");
+        listUsersAttributes.put("*", "username");
+        listUsersAttributes.put(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL, AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL);
+        listUsersAttributes.put(AwsCognitoConstants.USER_PROPERTY_EMAIL, AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL);
+        listUsersAttributes.put("j:firstName", "given_name");
+        listUsersAttributes.put("j:lastName", "family_name");
+        for (String attribute : new String[]{"given_name", "family_name", "name", "preferred_username", "phone_number"}) {
+            listUsersAttributes.put(attribute, attribute);
+        }
+        LIST_USERS_ATTRIBUTES = Collections.unmodifiableMap(listUsersAttributes);
+    }
+    // Window during which invalidation events are collected before being applied together
+    private static final long INVALIDATION_DELAY = 1000L;
+    // Users returned by a search filtered by AWS Cognito without limit, and at most whatever the limit requested
+    private static final int DEFAULT_PREFIX_SEARCH_LIMIT = 100;
+    private static final int MAX_PREFIX_SEARCH_LIMIT = 1000;
 
     private final AwsCognitoCacheManager awsCognitoCacheManager;
     private final AwsCognitoClientService awsCognitoClientService;
     private AwsCognitoConfiguration awsCognitoConfiguration;
+    private ScheduledExecutorService scheduler;
+    // Applies the invalidations, which must not wait for a synchronization running in the scheduler
+    private ScheduledExecutorService invalidationExecutor;
+    private volatile AwsCognitoPrincipalFilter principalFilter;
+    private volatile AwsCognitoSnapshot snapshot;
+    private volatile AwsCognitoSyncStatistics lastSyncStatistics;
+    // Principals registered while the principal filter is being built
+    private final Queue<String> recentPrincipals = new ConcurrentLinkedQueue<>();
+    private boolean started;
+    private final Set<String> pendingUserInvalidations = ConcurrentHashMap.newKeySet();
+    private final Set<String> pendingGroupInvalidations = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean invalidationScheduled = new AtomicBoolean();
+    // Principals invalidated since the last synchronization started -> invalidation time, not served from the snapshot
+    private final ConcurrentMap<String, Long> invalidatedUsers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> invalidatedGroups = new ConcurrentHashMap<>();
 
     public AwsCognitoUserGroupProvider(AwsCognitoCacheManager awsCognitoCacheManager, AwsCognitoClientService awsCognitoClientService) {
         this.awsCognitoCacheManager = awsCognitoCacheManager;
         this.awsCognitoClientService = awsCognitoClientService;
     }
 
+    public AwsCognitoConfiguration getAwsCognitoConfiguration() {
+        return awsCognitoConfiguration;
+    }
+
     public void setAwsCognitoConfiguration(AwsCognitoConfiguration awsCognitoConfiguration) {
         this.awsCognitoConfiguration = awsCognitoConfiguration;
     }
 
+    /**
+     * Starts the background tasks of the provider configuration.
+     */
+    public synchronized void start() {
+        if (awsCognitoConfiguration == null) {
+            return;
+        }
+        started = true;
+        awsCognitoCacheManager.registerInvalidationListener(getKey(), invalidation -> applyInvalidations(invalidation.getUsers(), invalidation.getGroups(), false));
+        if (awsCognitoConfiguration.isSyncEnabled()) {
+            // the principal filter is then built from the snapshot
+            getScheduler().scheduleWithFixedDelay(this::synchronize, 0, awsCognitoConfiguration.getSyncInterval(), TimeUnit.SECONDS);
+        } else if (awsCognitoConfiguration.isPrincipalFilterEnabled()) {
+            getScheduler().scheduleWithFixedDelay(this::buildPrincipalFilter, 0, awsCognitoConfiguration.getPrincipalFilterRefreshInterval(), TimeUnit.SECONDS);
+        }
+        if (!awsCognitoConfiguration.isSyncEnabled() && awsCognitoConfiguration.getMembershipPreloadInterval() > 0) {
+            getScheduler().scheduleWithFixedDelay(this::preloadMemberships, 0, awsCognitoConfiguration.getMembershipPreloadInterval(), TimeUnit.SECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        started = false;
+        awsCognitoCacheManager.unregisterInvalidationListener(getKey());
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (invalidationExecutor != null) {
+            invalidationExecutor.shutdownNow();
+            invalidationExecutor = null;
+        }
+        // the invalidations waiting for the end of their window are applied now rather than lost
+        if (!pendingUserInvalidations.isEmpty() || !pendingGroupInvalidations.isEmpty()) {
+            applyInvalidations();
+        }
+        invalidationScheduled.set(false);
+        principalFilter = null;
+        snapshot = null;
+        lastSyncStatistics = null;
+        recentPrincipals.clear();
+        invalidatedUsers.clear();
+        invalidatedGroups.clear();
+    }
+
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = newScheduler("aws-cognito-" + getKey());
+        }
+        return scheduler;
+    }
+
+    private synchronized ScheduledExecutorService getInvalidationExecutor() {
+        if (invalidationExecutor == null) {
+            invalidationExecutor = newScheduler("aws-cognito-invalidation-" + getKey());
+        }
+        return invalidationExecutor;
+    }
+
+    private static ScheduledExecutorService newScheduler(String threadName) {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void buildPrincipalFilter() {
+        long start = System.currentTimeMillis();
+        recentPrincipals.clear();
+        try {
+            AwsCognitoPrincipalFilter.Builder builder = new AwsCognitoPrincipalFilter.Builder();
+            awsCognitoClientService.scanUsers(awsCognitoConfiguration, user -> builder.add(user.getUsername())
+                    .add((String) user.getAttributes().get(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL))
+                    .add((String) user.getAttributes().get(AwsCognitoConstants.AWS_USERNAME)));
+            awsCognitoClientService.scanGroups(awsCognitoConfiguration, group -> builder.add(group.getName()));
+            installPrincipalFilter(builder, start);
+        } catch (Exception e) {
+            logger.warn("Unable to build the principal filter of provider {}", getKey());
+            if (logger.isDebugEnabled()) {
+                logger.debug("", e);
+            }
+        }
+    }
+
+    private void installPrincipalFilter(AwsCognitoPrincipalFilter.Builder builder, long start) {
+        AwsCognitoPrincipalFilter filter = builder.build();
+        recentPrincipals.forEach(filter::put);
+        principalFilter = filter;
+        logger.info("Principal filter of provider {} built with {} entries in {} ms", getKey(), builder.size(), System.currentTimeMillis() - start);
+    }
+
+    private void synchronize() {
+        long start = System.currentTimeMillis();
+        recentPrincipals.clear();
+        try {
+            AwsCognitoSynchronizer synchronizer = new AwsCognitoSynchronizer(awsCognitoClientService, awsCognitoCacheManager, awsCognitoConfiguration, getKey(), getSiteKey());
+            AwsCognitoSnapshot newSnapshot = synchronizer.synchronize(snapshot);
+            snapshot = newSnapshot;
+            lastSyncStatistics = synchronizer.getStatistics();
+            // the principals invalidated during the synchronization may have been read before their change
+            invalidatedUsers.values().removeIf(time -> time < start);
+            invalidatedGroups.values().removeIf(time -> time < start);
+            if (awsCognitoConfiguration.isPrincipalFilterEnabled()) {
+                AwsCognitoPrincipalFilter.Builder builder = new AwsCognitoPrincipalFilter.Builder();
+                newSnapshot.getUsers().forEach(user -> builder.add(user.getUsername())
+                        .add((String) user.getAttributes().get(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL))
+                        .add((String) user.getAttributes().get(AwsCognitoConstants.AWS_USERNAME)));
+                newSnapshot.getGroups().forEach(group -> builder.add(group.getName()));
+                installPrincipalFilter(builder, start);
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to synchronize provider {}", getKey());
+            if (logger.isDebugEnabled()) {
+                logger.debug("", e);
+            }
+        }
+    }
+
+    /**
+     * @return the changes applied by the last synchronization, null if not synchronized
+     */
+    public AwsCognitoSyncStatistics getLastSyncStatistics() {
+        return lastSyncStatistics;
+    }
+
+    /**
+     * Caches every group with its members and every group member with its groups,
+     * so that getGroupMembers and getMembership are served without calling AWS Cognito per user.
+     */
+    private void preloadMemberships() {
+        long start = System.currentTimeMillis();
+        try {
+            AwsCognitoPacer pacer = new AwsCognitoPacer(awsCognitoConfiguration.getSyncRateLimit());
+            List<AwsCognitoGroup> groups = new ArrayList<>();
+            awsCognitoClientService.scanGroups(awsCognitoConfiguration, groups::add, pacer);
+            Map<String, AwsCognitoUser> members = new ConcurrentHashMap<>();
+            AwsCognitoMemberships memberships = new AwsCognitoMembershipLoader(awsCognitoClientService, awsCognitoConfiguration, pacer)
+                    .load(groups, member -> members.putIfAbsent(member.getUsername(), member));
+            groups.forEach(group -> {
+                group.setMembers(memberships.getMembers(group.getName()));
+                awsCognitoCacheManager.cacheGroup(getKey(), getSiteKey(), group);
+            });
+            members.values().forEach(member -> {
+                member.setGroups(memberships.getGroups(member.getUsername()));
+                cacheUser(member);
+            });
+            logger.info("Memberships of provider {} preloaded: {} users in {} groups in {} ms", getKey(), members.size(), groups.size(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            logger.warn("Unable to preload the memberships of provider {}", getKey());
+            if (logger.isDebugEnabled()) {
+                logger.debug("", e);
+            }
+        }
+    }
+
+    /**
+     * Queues the invalidation of principals changed in AWS Cognito, the events received within
+     * {@link #INVALIDATION_DELAY} ms are applied together.
+     *
+     * @param users the sub, email or AWS username of the changed users
+     * @param groups the names of the changed groups
+     */
+    public void invalidate(Collection<String> users, Collection<String> groups) {
+        pendingUserInvalidations.addAll(users);
+        pendingGroupInvalidations.addAll(groups);
+        if (invalidationScheduled.compareAndSet(false, true)) {
+            synchronized (this) {
+                if (started) {
+                    getInvalidationExecutor().schedule(this::applyInvalidations, INVALIDATION_DELAY, TimeUnit.MILLISECONDS);
+                    return;
+                }
+            }
+            applyInvalidations();
+        }
+    }
+
+    private void applyInvalidations() {
+        invalidationScheduled.set(false);
+        applyInvalidations(drain(pendingUserInvalidations), drain(pendingGroupInvalidations), true);
+    }
+
+    /**
+     * @param publish true to send the invalidation to the other cluster nodes
+     */
+    private void applyInvalidations(Collection<String> users, Collection<String> groups, boolean publish) {
+        long now = System.currentTimeMillis();
+        AwsCognitoSnapshot currentSnapshot = snapshot;
+        Set<String> userKeys = new HashSet<>(users);
+        if (currentSnapshot != null) {
+            for (String user : users) {
+                AwsCognitoUser synchronizedUser = currentSnapshot.getUser(user);
+                if (synchronizedUser != null) {
+                    userKeys.add(synchronizedUser.getUsername());
+                    userKeys.add((String) synchronizedUser.getAttributes().get(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL));
+                    userKeys.add((String) synchronizedUser.getAttributes().get(AwsCognitoConstants.AWS_USERNAME));
+                }
+            }
+            userKeys.remove(null);
+            userKeys.forEach(key -> invalidatedUsers.put(key, now));
+            groups.forEach(group -> invalidatedGroups.put(group, now));
+        }
+        // created principals must pass the principal filter
+        userKeys.forEach(this::registerPrincipal);
+        groups.forEach(this::registerPrincipal);
+        awsCognitoCacheManager.evictUserKeys(getKey(), getSiteKey(), userKeys);
+        awsCognitoCacheManager.evictGroups(getKey(), getSiteKey(), groups);
+        if (publish) {
+            awsCognitoCacheManager.publishInvalidation(getKey(), userKeys, groups);
+        }
+        logger.debug("Provider {} invalidated users {} and groups {}", getKey(), userKeys, groups);
+    }
+
+    private static Set<String> drain(Set<String> pending) {
+        Set<String> drained = new HashSet<>();
+        for (Iterator<String> iterator = pending.iterator(); iterator.hasNext(); ) {
+            drained.add(iterator.next());
+            iterator.remove();
+        }
+        return drained;
+    }
+
+    /**
+     * @return the user of the last synchronization, null if not synchronized or invalidated since
+     */
+    private AwsCognitoUser getSynchronizedUser(String key) {
+        AwsCognitoSnapshot currentSnapshot = snapshot;
+        return currentSnapshot != null && !invalidatedUsers.containsKey(key) ? currentSnapshot.getUser(key) : null;
+    }
+
+    /**
+     * @return the group of the last synchronization, null if not synchronized or invalidated since
+     */
+    private AwsCognitoGroup getSynchronizedGroup(String groupName) {
+        AwsCognitoSnapshot currentSnapshot = snapshot;
+        return currentSnapshot != null && !invalidatedGroups.containsKey(groupName) ? currentSnapshot.getGroup(groupName) : null;
+    }
+
+    /**
+     * @return the members of the group in the last synchronization, null if not synchronized or invalidated since
+     */
+    private List<String> getSynchronizedMembers(String groupName) {
+        AwsCognitoSnapshot currentSnapshot = snapshot;
+        return currentSnapshot != null && !invalidatedGroups.containsKey(groupName) && currentSnapshot.getGroup(groupName) != null
+                ? currentSnapshot.getMembers(groupName) : null;
+    }
+
+    /**
+     * @return the groups of the user in the last synchronization, null if not synchronized or invalidated since
+     */
+    private List<String> getSynchronizedMembership(String key) {
+        AwsCognitoSnapshot currentSnapshot = snapshot;
+        AwsCognitoUser synchronizedUser = currentSnapshot != null && !invalidatedUsers.containsKey(key) ? currentSnapshot.getUser(key) : null;
+        return synchronizedUser != null ? currentSnapshot.getMembership(synchronizedUser.getUsername()) : null;
+    }
+
+    /**
+     * Adds a principal created since the last scan to the principal filter.
+     */
+    public void registerPrincipal(String principal) {
+        AwsCognitoPrincipalFilter filter = principalFilter;
+        if (filter != null) {
+            filter.put(principal);
+        }
+        if (principal != null && awsCognitoConfiguration != null && awsCognitoConfiguration.isPrincipalFilterEnabled()) {
+            recentPrincipals.add(principal);
+        }
+    }
+
+    /**
+     * Caches a user read from another source than the AWS Cognito API, e.g. the claims of its ID token.
+     */
+    public void cacheUser(AwsCognitoUser awsCognitoUser) {
+        if (!isAvailable()) {
+            return;
+        }
+        awsCognitoCacheManager.cacheUser(getKey(), getSiteKey(), awsCognitoUser);
+        registerPrincipal(awsCognitoUser.getUsername());
+        registerPrincipal((String) awsCognitoUser.getAttributes().get(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL));
+        registerPrincipal((String) awsCognitoUser.getAttributes().get(AwsCognitoConstants.AWS_USERNAME));
+    }
+
+    private boolean isUnknownPrincipal(String principal) {
+        AwsCognitoPrincipalFilter filter = principalFilter;
+        return filter != null && !filter.mightContain(principal);
+    }
+
     @Override
     protected String getSiteKey() {
         if (awsCognitoConfiguration == null) {
@@ -57,6 +406,13 @@ public class AwsCognitoUserGroupProvider extends BaseUserGroupProvider {
         if (!isAvailable()) {
             throw new UserNotFoundException();
         }
+        AwsCognitoUser synchronizedUser = getSynchronizedUser(userId);
+        if (synchronizedUser != null) {
+            return synchronizedUser.getJahiaUser();
+        }
+        if (isUnknownPrincipal(userId)) {
+            throw new UserNotFoundException("User '" + userId + "' not found.");
+        }
         return awsCognitoCacheManager.getOrRefreshUser(getKey(), getSiteKey(), userId,
                         () -> awsCognitoClientService.getUser(awsCognitoConfiguration, AwsCognitoConstants.SSO_LOGIN, userId))
                 .orElseThrow(() -> new UserNotFoundException("User '" + userId + "' not found.")).getJahiaUser();
@@ -71,6 +427,13 @@ public class AwsCognitoUserGroupProvider extends BaseUserGroupProvider {
             logger.debug("Group {} is protected", groupname);
             return null;
         }
+        AwsCognitoGroup synchronizedGroup = getSynchronizedGroup(groupname);
+        if (synchronizedGroup != null) {
+            return synchronizedGroup.getJahiaGroup();
+        }
+        if (isUnknownPrincipal(groupname)) {
+            throw new GroupNotFoundException("Group '" + groupname + "' not found.");
+        }
         return awsCognitoCacheManager.getOrRefreshGroup(getKey(), getSiteKey(), groupname, () -> awsCognitoClientService.getGroup(awsCognitoConfiguration, groupname))
                 .orElseThrow(() -> new GroupNotFoundException("Group '" + groupname + "' not found.")).getJahiaGroup();
     }
@@ -84,6 +447,11 @@ public class AwsCognitoUserGroupProvider extends BaseUserGroupProvider {
             logger.debug("Group {} is protected", groupname);
             return null;
         }
+        List<String> synchronizedMembers = getSynchronizedMembers(groupname);
+        if (synchronizedMembers != null) {
+            return synchronizedMembers.stream().map(member -> new Member(member, Member.MemberType.USER))
+                    .collect(Collectors.toList());
+        }
         // List of members in the groupname
         Optional<AwsCognitoGroup> group = awsCognitoCacheManager.getGroup(getKey(), getSiteKey(), groupname);
         if (!group.isPresent()) {
@@ -96,12 +464,32 @@ public class AwsCognitoUserGroupProvider extends BaseUserGroupProvider {
                     .collect(Collectors.toList());
         }
 
-        List<Member> members = new ArrayList<>();
-        awsCognitoClientService.getGroupMembers(awsCognitoConfiguration, groupname).orElse(Collections.emptyList())
-                .forEach(user -> members.add(new Member(user.getUsername(), Member.MemberType.USER)));
+        List<String> memberNames = readGroupMembers(groupname);
+        if (memberNames == null) {
+            return Collections.emptyList();
+        }
         awsCognitoCacheManager.getOrRefreshGroup(getKey(), getSiteKey(), groupname, () -> awsCognitoClientService.getGroup(awsCognitoConfiguration, groupname))
-                .ifPresent(g -> g.setMembers(members.stream().map(Member::getName).collect(Collectors.toList())));
-        return Collections.unmodifiableList(members);
+                .ifPresent(g -> g.setMembers(memberNames));
+        return Collections.unmodifiableList(memberNames.stream().map(name -> new Member(name, Member.MemberType.USER)).collect(Collectors.toList()));
+    }
+
+    /**
+     * Streams the members of a group page by page, keeping only their names.
+     *
+     * @return the names of the members, null if they could not be read
+     */
+    private List<String> readGroupMembers(String groupname) {
+        try (Stream<AwsCognitoUser> groupMembers = awsCognitoClientService.streamGroupMembers(awsCognitoConfiguration, groupname)) {
+            return groupMembers.map(AwsCognitoUser::getUsername).collect(Collectors.toList());
+        } catch (AwsCognitoUnavailableException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.warn("Unable to get group {} members", groupname);
+            if (logger.isDebugEnabled()) {
+                logger.debug("", e);
+            }
+            return null;
+        }
     }
 
     @Override
@@ -115,25 +503,50 @@ public class AwsCognitoUserGroupProvider extends BaseUserGroupProvider {
 
         // List of groups this principal belongs to
         String userId = member.getName();
+        List<String> synchronizedMembership = getSynchronizedMembership(userId);
+        if (synchronizedMembership != null) {
+            return synchronizedMembership;
+        }
         Optional<AwsCognitoUser> user = awsCognitoCacheManager.getOrRefreshUser(getKey(), getSiteKey(), userId,
                 () -> awsCognitoClientService.getUser(awsCognitoConfiguration, AwsCognitoConstants.SSO_LOGIN, userId));
         if (!user.isPresent()) {
             logger.warn("Unable to get membership for user {}", userId);
             return Collections.emptyList();
         }
-        if (CollectionUtils.isNotEmpty(user.get().getGroups())) {
+        if (user.get().getGroups() != null) {
             logger.debug("User groups {} are in cache", userId);
             return user.get().getGroups();
         }
 
-        List<String> groups = new ArrayList<>();
-        awsCognitoClientService.getMembership(awsCognitoConfiguration, (String) user.get().getAttributes().get(AwsCognitoConstants.AWS_USERNAME)).orElse(Collections.emptyList())
-                .forEach(group -> groups.add(group.getName()));
+        List<String> groups = readMembership(userId, (String) user.get().getAttributes().get(AwsCognitoConstants.AWS_USERNAME));
+        if (groups == null) {
+            // a partial walk is not cached, it would remove the user from its other groups until the entry is reloaded
+            return Collections.emptyList();
+        }
         awsCognitoCacheManager.getOrRefreshUser(getKey(), getSiteKey(), userId, () -> awsCognitoClientService.getUser(awsCognitoConfiguration, AwsCognitoConstants.SSO_LOGIN, userId))
                 .ifPresent(u -> u.setGroups(groups));
         return Collections.unmodifiableList(groups);
     }
 
+    /**
+     * Streams the groups of a user page by page, keeping only their names.
+     *
+     * @return the names of the groups, null if they could not be read
+     */
+    private List<String> readMembership(String userId, String username) {
+        try (Stream<AwsCognitoGroup> userGroups = awsCognitoClientService.streamMembership(awsCognitoConfiguration, username)) {
+            return userGroups.map(AwsCognitoGroup::getName).collect(Collectors.toList());
+        } catch (AwsCognitoUnavailableException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.warn("Unable to get membership for user: {}", userId);
+            if (logger.isDebugEnabled()) {
+                logger.debug("", e);
+            }
+            return null;
+        }
+    }
+
     @Override
     public List<String> searchUsers(Properties searchCriteria, long offset, long limit) {
         if (!isAvailable()) {
@@ -143,9 +556,28 @@ public class AwsCognitoUserGroupProvider extends BaseUserGroupProvider {
             logger.debug("Search users: {}", searchCriteria);
         }
 
+        AwsCognitoSnapshot currentSnapshot = snapshot;
+        if (currentSnapshot != null && isIndexedSearch(searchCriteria)) {
+            return searchSynchronizedUsers(currentSnapshot, searchCriteria, offset, limit);
+        }
+
+        // without synchronization, a prefix search is filtered by AWS Cognito
+        String prefixAttribute = getPrefixSearchAttribute(searchCriteria);
+        if (currentSnapshot == null && prefixAttribute != null) {
+            String property = getSearchProperties(searchCriteria).iterator().next();
+            return searchUsersByPrefix(prefixAttribute, StringUtils.removeEnd(searchCriteria.getProperty(property), "*"), offset, limit);
+        }
+
         // search one user in the cache by username
         if (searchCriteria.size() == 1 && (searchCriteria.containsKey(PROP_USERNAME) || searchCriteria.containsKey("*"))) {
             String userId = StringUtils.defaultString(searchCriteria.getProperty(PROP_USERNAME), searchCriteria.getProperty("*")).replace("*", "");
+            AwsCognitoUser synchronizedUser = getSynchronizedUser(userId);
+            if (synchronizedUser != null) {
+                return Collections.singletonList(synchronizedUser.getUsername());
+            }
+            if (isUnknownPrincipal(userId)) {
+                return Collections.emptyList();
+            }
             return awsCognitoCacheManager.getOrRefreshUser(getKey(), getSiteKey(), userId,
                             () -> awsCognitoClientService.getUser(awsCognitoConfiguration, AwsCognitoConstants.SSO_LOGIN, userId))
                     .map(awsCognitoUser -> Collections.singletonList(awsCognitoUser.getUsername()))
@@ -155,16 +587,120 @@ public class AwsCognitoUserGroupProvider extends BaseUserGroupProvider {
         // search one user in the cache by email
         if (searchCriteria.containsKey(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL)) {
             String email = searchCriteria.getProperty(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL).replace("*", "");
+            AwsCognitoUser synchronizedUser = getSynchronizedUser(email);
+            if (synchronizedUser != null) {
+                return Collections.singletonList(synchronizedUser.getUsername());
+            }
+            if (isUnknownPrincipal(email)) {
+                return Collections.emptyList();
+            }
             return awsCognitoCacheManager.getOrRefreshUser(getKey(), getSiteKey(), email,
                             () -> awsCognitoClientService.getUser(awsCognitoConfiguration, AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL, email))
                     .map(awsCognitoUser -> Collections.singletonList(awsCognitoUser.getUsername()))
                     .orElse(Collections.emptyList());
         }
 
-        logger.warn("Search users is disabled");
+        logger.warn("Search users is disabled for {} without synchronization, only a prefix of one attribute can be searched", searchCriteria);
         return Collections.emptyList();
     }
 
+    private static Set<String> getSearchProperties(Properties searchCriteria) {
+        Set<String> properties = new HashSet<>(searchCriteria.stringPropertyNames());
+        properties.remove(PROP_SEARCH_OPERATION);
+        return properties;
+    }
+
+    /**
+     * @return the ListUsers attribute of a search on a single property with a pattern ending with the only wildcard,
+     * e.g. <code>username=jo*</code>, null if the search cannot be filtered by AWS Cognito
+     */
+    static String getPrefixSearchAttribute(Properties searchCriteria) {
+        Set<String> properties = getSearchProperties(searchCriteria);
+        if (properties.size() != 1) {
+            return null;
+        }
+        String property = properties.iterator().next();
+        String pattern = searchCriteria.getProperty(property);
+        return pattern.indexOf('*') == pattern.length() - 1 ? LIST_USERS_ATTRIBUTES.get(property) : null;
+    }
+
+    /**
+     * Reads the users matching a prefix page by page from AWS Cognito. The pagination tokens are cached by position,
+     * so that the next pages of the same search start from the closest known page instead of the first one.
+     * The search reads at most {@value #MAX_PREFIX_SEARCH_LIMIT} users, {@value #DEFAULT_PREFIX_SEARCH_LIMIT} without limit.
+     */
+    private List<String> searchUsersByPrefix(String attribute, String prefix, long offset, long limit) {
+        String query = attribute + " ^= " + prefix;
+        int start = (int) Math.min(Integer.MAX_VALUE, Math.max(0, offset));
+        int count = limit <= 0 ? DEFAULT_PREFIX_SEARCH_LIMIT : (int) Math.min(limit, MAX_PREFIX_SEARCH_LIMIT);
+        long end = (long) start + count;
+        Map.Entry<Integer, String> cursor = awsCognitoCacheManager.getUserCursor(getKey(), getSiteKey(), query, start);
+        boolean fromCursor = cursor != null;
+        int position = fromCursor ? cursor.getKey() : 0;
+        String paginationToken = fromCursor ? cursor.getValue() : null;
+        List<String> usernames = new ArrayList<>();
+        Map<Integer, String> cursors = new HashMap<>();
+        while (true) {
+            Optional<AwsCognitoUserPage> page = awsCognitoClientService.getUsersByPrefix(awsCognitoConfiguration, attribute, prefix, paginationToken);
+            if (!page.isPresent()) {
+                if (fromCursor) {
+                    // the cached pagination token may have expired, the search starts again from the first page
+                    awsCognitoCacheManager.evictUserCursors(getKey(), getSiteKey(), query);
+                    fromCursor = false;
+                    position = 0;
+                    paginationToken = null;
+                    continue;
+                }
+                break;
+            }
+            fromCursor = false;
+            for (AwsCognitoUser awsCognitoUser : page.get().getUsers()) {
+                if (position >= start && position < end) {
+                    usernames.add(awsCognitoUser.getUsername());
+                    cacheUser(awsCognitoUser);
+                }
+                position++;
+            }
+            paginationToken = page.get().getPaginationToken();
+            if (paginationToken != null) {
+                cursors.put(position, paginationToken);
+            }
+            // no page is read past offset + limit
+            if (paginationToken == null || position >= end) {
+                break;
+            }
+        }
+        awsCognitoCacheManager.cacheUserCursors(getKey(), getSiteKey(), query, cursors);
+        return Collections.unmodifiableList(usernames);
+    }
+
+    /**
+     * @return false for a single exact username or email, looked up directly instead
+     */
+    private static boolean isIndexedSearch(Properties searchCriteria) {
+        Set<String> properties = getSearchProperties(searchCriteria);
+        if (properties.size() != 1) {
+            return true;
+        }
+        String property = properties.iterator().next();
+        return !(PROP_USERNAME.equals(property) || "*".equals(property) || AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL.equals(property))
+                || searchCriteria.getProperty(property).contains("*");
+    }
+
+    /**
+     * Searches the users of the last synchronization on any attribute, without calling AWS Cognito.
+     */
+    private static List<String> searchSynchronizedUsers(AwsCognitoSnapshot currentSnapshot, Properties searchCriteria, long offset, long limit) {
+        Map<String, String> criteria = new LinkedHashMap<>();
+        for (String property : searchCriteria.stringPropertyNames()) {
+            if (!PROP_SEARCH_OPERATION.equals(property)) {
+                criteria.put(property, searchCriteria.getProperty(property));
+            }
+        }
+        boolean and = SEARCH_OPERATION_AND.equalsIgnoreCase(StringUtils.trim(searchCriteria.getProperty(PROP_SEARCH_OPERATION)));
+        return currentSnapshot.getUserIndex().search(criteria, and, offset, limit);
+    }
+
     @Override
     public List<String> searchGroups(Properties searchCriteria, long offset, long limit) {
         if (!isAvailable()) {
@@ -181,36 +717,41 @@ public class AwsCognitoUserGroupProvider extends BaseUserGroupProvider {
                 logger.debug("Group {} is protected", groupId);
                 return Collections.emptyList();
             }
+            AwsCognitoGroup synchronizedGroup = getSynchronizedGroup(groupId);
+            if (synchronizedGroup != null) {
+                return Collections.singletonList(synchronizedGroup.getName());
+            }
+            if (isUnknownPrincipal(groupId)) {
+                return Collections.emptyList();
+            }
             return awsCognitoCacheManager.getOrRefreshGroup(getKey(), getSiteKey(), groupId, () -> awsCognitoClientService.getGroup(awsCognitoConfiguration, groupId))
                     .map(awsCognitoGroup -> Collections.singletonList(awsCognitoGroup.getName()))
                     .orElse(Collections.emptyList());
         }
 
-        Optional<List<AwsCognitoGroup>> awsCognitoGroups = awsCognitoCacheManager.getGroups(getKey(), getSiteKey(), (int) offset, (int) limit, () ->
-                awsCognitoClientService.getGroups(awsCognitoConfiguration));
+        AwsCognitoSnapshot currentSnapshot = snapshot;
+        AwsCognitoGroupCatalog catalog = currentSnapshot != null ? currentSnapshot.getGroupCatalog() :
+                awsCognitoCacheManager.getGroupCatalog(getKey(), getSiteKey(), () -> awsCognitoClientService.getGroups(awsCognitoConfiguration))
+                        .orElse(AwsCognitoGroupCatalog.EMPTY);
 
-        String filter;
-        if (searchCriteria.containsKey("*")) {
-            filter = searchCriteria.getProperty("*").replace("*", "");
+        String pattern;
+        boolean withDescriptions = searchCriteria.containsKey("*");
+        if (withDescriptions) {
+            pattern = searchCriteria.getProperty("*");
         } else if (searchCriteria.containsKey(PROP_GROUPNAME)) {
-            filter = searchCriteria.getProperty(PROP_GROUPNAME).replace("*", "");
+            pattern = searchCriteria.getProperty(PROP_GROUPNAME);
         } else {
-            filter = null;
+            pattern = null;
             logger.warn("Unable to search groups multiple attributes ; return all groups");
         }
 
         List<String> groupIds = new ArrayList<>();
-        List<AwsCognitoGroup> groups = awsCognitoGroups.orElse(Collections.emptyList())
-                .stream()
-                .filter(group -> filter == null || StringUtils.containsIgnoreCase(group.getName(), filter))
-                .collect(Collectors.toList());
-        if (!groups.isEmpty() && limit > 0) {
-            groups = groups.subList((int) offset, Math.min(groups.size(), (int) (offset + limit)));
-        }
-        groups.forEach(group -> {
+        for (AwsCognitoGroup group : catalog.search(pattern, withDescriptions, offset, limit)) {
             groupIds.add(group.getName());
-            awsCognitoCacheManager.cacheGroup(getKey(), getSiteKey(), group);
-        });
+            if (currentSnapshot == null) {
+                awsCognitoCacheManager.cacheGroup(getKey(), getSiteKey(), group);
+            }
+        }
         return Collections.unmodifiableList(groupIds);
     }
 
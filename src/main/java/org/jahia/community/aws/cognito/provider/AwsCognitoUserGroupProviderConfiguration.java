@@ -97,6 +97,11 @@ public class AwsCognitoUserGroupProviderConfiguration implements UserGroupProvid
         if (parameters.containsKey("propValue." + AwsCognitoConstants.USER_POOL_ID)) {
             properties.put(AwsCognitoConstants.USER_POOL_ID, parameters.get("propValue." + AwsCognitoConstants.USER_POOL_ID));
         }
+        for (String optionalProperty : AwsCognitoConstants.OPTIONAL_PROPERTIES) {
+            if (parameters.containsKey("propValue." + optionalProperty) && StringUtils.isNotBlank((String) parameters.get("propValue." + optionalProperty))) {
+                properties.put(optionalProperty, parameters.get("propValue." + optionalProperty));
+            }
+        }
         return properties;
     }
 
@@ -0,0 +1,269 @@
+package org.jahia.community.aws.cognito.provider;
+
+import org.apache.commons.lang.StringUtils;
+import org.jahia.community.aws.cognito.api.AwsCognitoConstants;
+import org.jahia.community.aws.cognito.client.AwsCognitoUser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index of the searchable attributes of the users of a snapshot, searched in username order.
+ * A synchronization updates a copy of the index of the previous snapshot with the users it found changed.
+ * Jahia user properties are mapped to the AWS Cognito attributes, e.g. <code>j:firstName</code> to <code>given_name</code>,
+ * AWS Cognito attributes such as <code>custom:organization</code> can be searched directly.
+ */
+public class AwsCognitoUserIndex {
+    private static final String CUSTOM_ATTRIBUTE_PREFIX = "custom:";
+    private static final String ANY_PROPERTY = "*";
+    private static final List<String> STANDARD_ATTRIBUTES = Arrays.asList(AwsCognitoConstants.AWS_USERNAME, AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL,
+            "given_name", "family_name", "middle_name", "name", "nickname", "preferred_username");
+    // Jahia user property -> AWS Cognito attributes
+    private static final Map<String, List<String>> PROPERTY_ATTRIBUTES;
+
+    static {
+        Map<String, List<String>> propertyAttributes = new HashMap<>();
+        propertyAttributes.put("username", Arrays.asList(AwsCognitoConstants.SSO_LOGIN, AwsCognitoConstants.AWS_USERNAME));
+        propertyAttributes.put("j:firstName", Collections.singletonList("given_name"));
+        propertyAttributes.put("j:lastName", Collections.singletonList("family_name"));
+        propertyAttributes.put(AwsCognitoConstants.USER_PROPERTY_EMAIL, Collections.singletonList(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL));
+        propertyAttributes.put("j:organization", Collections.singletonList("custom:organization"));
+        PROPERTY_ATTRIBUTES = Collections.unmodifiableMap(propertyAttributes);
+    }
+
+    // username of the user at each position, null for the position of a removed user, reused by the next added user
+    private final String[] usernames;
+    // positions of the users sorted by username
+    private final int[] positionsByRank;
+    // rank of the user at each position, -1 for a removed user
+    private final int[] ranks;
+    private final Map<String, AwsCognitoNGramIndex> indexes;
+
+    public AwsCognitoUserIndex(Collection<AwsCognitoUser> users) {
+        List<AwsCognitoUser> sortedUsers = new ArrayList<>(users);
+        sortedUsers.sort(Comparator.comparing(AwsCognitoUser::getUsername));
+        usernames = sortedUsers.stream().map(AwsCognitoUser::getUsername).toArray(String[]::new);
+        positionsByRank = AwsCognitoNGramIndex.range(0, usernames.length);
+        ranks = AwsCognitoNGramIndex.range(0, usernames.length);
+
+        Set<String> attributes = new LinkedHashSet<>();
+        attributes.add(AwsCognitoConstants.SSO_LOGIN);
+        attributes.addAll(STANDARD_ATTRIBUTES);
+        addCustomAttributes(attributes, sortedUsers);
+        indexes = new LinkedHashMap<>();
+        for (String attribute : attributes) {
+            String[] values = new String[sortedUsers.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = getValue(sortedUsers.get(i), attribute);
+            }
+            indexes.put(attribute, new AwsCognitoNGramIndex(values, false, getGramLength(attribute)));
+        }
+    }
+
+    private AwsCognitoUserIndex(String[] usernames, int[] positionsByRank, int[] ranks, Map<String, AwsCognitoNGramIndex> indexes) {
+        this.usernames = usernames;
+        this.positionsByRank = positionsByRank;
+        this.ranks = ranks;
+        this.indexes = indexes;
+    }
+
+    private static void addCustomAttributes(Set<String> attributes, Collection<AwsCognitoUser> users) {
+        for (AwsCognitoUser user : users) {
+            for (String attribute : user.getAttributes().stringPropertyNames()) {
+                if (attribute.startsWith(CUSTOM_ATTRIBUTE_PREFIX)) {
+                    attributes.add(attribute);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the lower-cased value of the attribute, null if the user does not have it
+     */
+    private static String getValue(AwsCognitoUser user, String attribute) {
+        String value = AwsCognitoConstants.SSO_LOGIN.equals(attribute) ? user.getUsername() : user.getAttributes().getProperty(attribute);
+        return value != null ? value.toLowerCase(Locale.ROOT) : null;
+    }
+
+    private static int getGramLength(String attribute) {
+        // subs are only looked up by prefix, their grams would take more memory than all the other attributes
+        return AwsCognitoConstants.SSO_LOGIN.equals(attribute) ? 0 : AwsCognitoNGramIndex.GRAM_LENGTH;
+    }
+
+    /**
+     * Applies the changes of a synchronization. The posting lists of the grams of the unchanged users are shared
+     * with this index, which is left untouched and can still be searched.
+     *
+     * @param removedUsers the users deleted or modified since this index was built
+     * @param addedUsers   the users created, and the new version of the modified users
+     * @return the updated index, this index if nothing changed
+     */
+    public AwsCognitoUserIndex update(Collection<AwsCognitoUser> removedUsers, Collection<AwsCognitoUser> addedUsers) {
+        if (removedUsers.isEmpty() && addedUsers.isEmpty()) {
+            return this;
+        }
+        Set<Integer> removedPositions = new HashSet<>();
+        for (AwsCognitoUser user : removedUsers) {
+            addPosition(removedPositions, user.getUsername());
+        }
+        for (AwsCognitoUser user : addedUsers) {
+            addPosition(removedPositions, user.getUsername());
+        }
+        // the positions of the removed users are reused before adding new ones
+        Deque<Integer> freePositions = new ArrayDeque<>(removedPositions);
+        for (int position = 0; position < usernames.length; position++) {
+            if (usernames[position] == null) {
+                freePositions.add(position);
+            }
+        }
+        int size = usernames.length;
+        Map<Integer, AwsCognitoUser> addedPositions = new HashMap<>();
+        for (AwsCognitoUser user : addedUsers) {
+            Integer position = freePositions.poll();
+            addedPositions.put(position != null ? position : size++, user);
+        }
+        String[] updatedUsernames = Arrays.copyOf(usernames, size);
+        removedPositions.forEach(position -> updatedUsernames[position] = null);
+        addedPositions.forEach((position, user) -> updatedUsernames[position] = user.getUsername());
+
+        Set<String> attributes = new LinkedHashSet<>(indexes.keySet());
+        addCustomAttributes(attributes, addedUsers);
+        Map<String, AwsCognitoNGramIndex> updatedIndexes = new LinkedHashMap<>();
+        for (String attribute : attributes) {
+            Map<Integer, String> changes = new HashMap<>();
+            removedPositions.forEach(position -> changes.put(position, null));
+            addedPositions.forEach((position, user) -> changes.put(position, getValue(user, attribute)));
+            AwsCognitoNGramIndex index = indexes.get(attribute);
+            if (index == null) {
+                index = new AwsCognitoNGramIndex(new String[0], false, getGramLength(attribute));
+            }
+            updatedIndexes.put(attribute, index.update(changes, size));
+        }
+
+        // the remaining users keep their order, the added users are merged into it
+        List<Integer> added = new ArrayList<>(addedPositions.keySet());
+        added.sort(Comparator.comparing(position -> updatedUsernames[position]));
+        int[] updatedPositionsByRank = new int[positionsByRank.length - removedPositions.size() + added.size()];
+        int i = 0;
+        int j = 0;
+        for (int rank = 0; rank < updatedPositionsByRank.length; rank++) {
+            while (i < positionsByRank.length && removedPositions.contains(positionsByRank[i])) {
+                i++;
+            }
+            if (j == added.size() || (i < positionsByRank.length && usernames[positionsByRank[i]].compareTo(updatedUsernames[added.get(j)]) < 0)) {
+                updatedPositionsByRank[rank] = positionsByRank[i++];
+            } else {
+                updatedPositionsByRank[rank] = added.get(j++);
+            }
+        }
+        int[] updatedRanks = new int[size];
+        Arrays.fill(updatedRanks, -1);
+        for (int rank = 0; rank < updatedPositionsByRank.length; rank++) {
+            updatedRanks[updatedPositionsByRank[rank]] = rank;
+        }
+        return new AwsCognitoUserIndex(updatedUsernames, updatedPositionsByRank, updatedRanks, updatedIndexes);
+    }
+
+    private void addPosition(Set<Integer> positions, String username) {
+        int low = 0;
+        int high = positionsByRank.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = usernames[positionsByRank[middle]].compareTo(username);
+            if (comparison == 0) {
+                positions.add(positionsByRank[middle]);
+                return;
+            }
+            if (comparison < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+    }
+
+    public int size() {
+        return positionsByRank.length;
+    }
+
+    /**
+     * @param criteria Jahia user properties or AWS Cognito attributes -> pattern, <code>*</code> matches any sequence of
+     *                 characters ignoring the case, a pattern without wildcard the equal values; the property <code>*</code>
+     *                 matches any indexed attribute
+     * @param and      true if every criterion must match, false if any criterion must match
+     * @param limit    the maximum number of usernames returned, 0 or less for no limit
+     * @return a page of the usernames of the matching users, sorted by username
+     */
+    public List<String> search(Map<String, String> criteria, boolean and, long offset, long limit) {
+        int[] positions = null;
+        for (Map.Entry<String, String> criterion : criteria.entrySet()) {
+            int[] matches = search(getAttributes(criterion.getKey()), criterion.getValue());
+            if (positions == null) {
+                positions = matches;
+            } else {
+                positions = and ? AwsCognitoNGramIndex.intersect(positions, matches) : AwsCognitoNGramIndex.union(positions, matches, Integer.MAX_VALUE);
+            }
+        }
+        BitSet matchingRanks = new BitSet(positionsByRank.length);
+        if (positions == null) {
+            matchingRanks.set(0, positionsByRank.length);
+        } else {
+            for (int position : positions) {
+                if (ranks[position] >= 0) {
+                    matchingRanks.set(ranks[position]);
+                }
+            }
+        }
+        List<String> page = new ArrayList<>();
+        long skipped = 0;
+        for (int rank = matchingRanks.nextSetBit(0); rank >= 0 && (limit <= 0 || page.size() < limit); rank = matchingRanks.nextSetBit(rank + 1)) {
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                page.add(usernames[positionsByRank[rank]]);
+            }
+        }
+        return Collections.unmodifiableList(page);
+    }
+
+    private List<String> getAttributes(String property) {
+        if (ANY_PROPERTY.equals(property)) {
+            return new ArrayList<>(indexes.keySet());
+        }
+        return PROPERTY_ATTRIBUTES.getOrDefault(property, Collections.singletonList(property));
+    }
+
+    /**
+     * @return the sorted positions of the users having one of the attributes matching the pattern,
+     * including the positions of removed users when the pattern matches anything
+     */
+    private int[] search(List<String> attributes, String pattern) {
+        String value = StringUtils.defaultString(pattern).toLowerCase(Locale.ROOT);
+        String[] segments = StringUtils.split(value, AwsCognitoNGramIndex.WILDCARD);
+        if (segments.length == 0) {
+            return AwsCognitoNGramIndex.range(0, usernames.length);
+        }
+        int[] positions = new int[0];
+        for (String attribute : attributes) {
+            AwsCognitoNGramIndex index = indexes.get(attribute);
+            if (index != null) {
+                positions = AwsCognitoNGramIndex.union(positions, index.search(value, segments, Integer.MAX_VALUE), Integer.MAX_VALUE);
+            }
+        }
+        return positions;
+    }
+}
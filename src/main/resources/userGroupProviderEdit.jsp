@@ -1,3 +1,4 @@
+<%@ page import="org.jahia.community.aws.cognito.api.AwsCognitoConstants" %>
 <%@ page import="org.jahia.community.aws.cognito.provider.AwsCognitoKarafConfigurationFactory" %>
 <%@ page import="org.jahia.osgi.BundleUtils" %>
 <%@ page import="org.osgi.service.cm.ConfigurationAdmin" %>
@@ -35,6 +36,7 @@
     } else {
         pageContext.setAttribute("awsCognitoProperties", Collections.emptyMap());
     }
+    pageContext.setAttribute("optionalProperties", AwsCognitoConstants.OPTIONAL_PROPERTIES);
 %>
 <utility:setBundle basename="resources.jahia-oauth-aws-cognito" var="bundle"/>
 <jcr:jqom statement="SELECT * FROM [jnt:virtualsite] WHERE ISCHILDNODE('/sites') AND localname() <> 'systemsite'"
@@ -118,6 +120,19 @@
                                value="${awsCognitoProperties['userPoolId']}"/>
                     </div>
                 </div>
+                <c:forEach items="${optionalProperties}" var="optionalProperty">
+                    <div class="form-group">
+                        <div class="col-md-4">
+                            <label class="control-label">
+                                <fmt:message bundle="${bundle}" key="AwsCognitoConfiguration.${optionalProperty}"/>
+                            </label>
+                        </div>
+                        <div class="col-md-8">
+                            <input type="${optionalProperty eq 'invalidationSecret' ? 'password' : 'text'}" name="propValue.${optionalProperty}" class="form-control"
+                                   value="${awsCognitoProperties[optionalProperty]}"/>
+                        </div>
+                    </div>
+                </c:forEach>
             </div>
         </fieldset>
     </div>
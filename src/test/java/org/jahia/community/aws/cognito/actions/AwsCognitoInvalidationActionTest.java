@@ -0,0 +1,255 @@
+package org.jahia.community.aws.cognito.actions;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jahia.community.aws.cognito.api.AwsCognitoConfiguration;
+import org.jahia.community.aws.cognito.api.AwsCognitoConstants;
+import org.jahia.community.aws.cognito.provider.AwsCognitoUserGroupProvider;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts signed invalidation requests to a local HTTP server handing them to the invalidation action,
+ * and records the invalidations queued in the providers.
+ */
+public class AwsCognitoInvalidationActionTest {
+    private static final String SECRET = "invalidation-secret";
+    private static final String USER_POOL_ID = "eu-west-1_pool";
+    private static final String BODY = "{\"userPoolId\":\"eu-west-1_pool\",\"events\":[{\"type\":\"user\",\"id\":\"john@example.com\"}]}";
+
+    private HttpServer server;
+    private URL url;
+    private final List<AwsCognitoUserGroupProvider> providers = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        providers.add(new RecordingProvider(USER_POOL_ID, SECRET));
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/invalidate", this::verify);
+        server.start();
+        url = new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), "/invalidate");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private void verify(HttpExchange exchange) throws IOException {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        int status = AwsCognitoInvalidationAction.invalidate(contentLength != null ? Integer.parseInt(contentLength) : -1, exchange.getRequestBody(),
+                exchange.getRequestHeaders().getFirst(AwsCognitoRequestSignature.TIMESTAMP_HEADER),
+                exchange.getRequestHeaders().getFirst(AwsCognitoRequestSignature.SIGNATURE_HEADER), providers);
+        // the servlet container discards the rest of the request, the client then reads the response
+        byte[] buffer = new byte[4096];
+        while (exchange.getRequestBody().read(buffer) != -1) {
+            // discarded
+        }
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    private static AwsCognitoConfiguration getConfiguration(String userPoolId, String secret) {
+        Map<String, Object> props = new HashMap<>();
+        props.put(AwsCognitoConstants.TARGET_SITE, "site1");
+        props.put(AwsCognitoConstants.USER_POOL_ID, userPoolId);
+        props.put(AwsCognitoConstants.INVALIDATION_SECRET, secret);
+        return new AwsCognitoConfiguration(props);
+    }
+
+    private RecordingProvider getProvider(int index) {
+        return (RecordingProvider) providers.get(index);
+    }
+
+    private int post(byte[] body, String timestamp, String signature) throws IOException {
+        return post(body, timestamp, signature, false);
+    }
+
+    private int post(byte[] body, String timestamp, String signature, boolean chunked) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            if (chunked) {
+                // no Content-Length, the body is only measured while read
+                connection.setChunkedStreamingMode(4096);
+            }
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty(AwsCognitoRequestSignature.TIMESTAMP_HEADER, timestamp);
+            connection.setRequestProperty(AwsCognitoRequestSignature.SIGNATURE_HEADER, signature);
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body);
+            }
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String now() {
+        return Long.toString(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+    }
+
+    private int postSigned(String body) throws Exception {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String timestamp = now();
+        return post(bytes, timestamp, AwsCognitoRequestSignature.sign(SECRET, timestamp, bytes));
+    }
+
+    @Test
+    public void acceptsValidSignature() throws Exception {
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        String timestamp = now();
+        Assert.assertEquals(202, post(body, timestamp, AwsCognitoRequestSignature.sign(SECRET, timestamp, body)));
+        Assert.assertEquals(Collections.singletonList(Collections.singleton("john@example.com")), getProvider(0).users);
+        Assert.assertEquals(Collections.singletonList(Collections.emptySet()), getProvider(0).groups);
+    }
+
+    @Test
+    public void queuesAllEventsInOneInvalidation() throws Exception {
+        String body = "{\"userPoolId\":\"eu-west-1_pool\",\"events\":[{\"type\":\"user\",\"id\":\"john@example.com\"},"
+                + "{\"type\":\"group\",\"id\":\"editors\",\"user\":\"jane@example.com\"},{\"type\":\"group\",\"id\":\"reviewers\"}]}";
+        Assert.assertEquals(202, postSigned(body));
+        Assert.assertEquals(Collections.singletonList(new HashSet<>(Arrays.asList("john@example.com", "jane@example.com"))), getProvider(0).users);
+        Assert.assertEquals(Collections.singletonList(new HashSet<>(Arrays.asList("editors", "reviewers"))), getProvider(0).groups);
+    }
+
+    @Test
+    public void acceptsLambdaTriggerEvent() throws Exception {
+        String body = "{\"userPoolId\":\"eu-west-1_pool\",\"userName\":\"john\",\"request\":{\"userAttributes\":{\"sub\":\"9f6d2b1e\"}}}";
+        Assert.assertEquals(202, postSigned(body));
+        Assert.assertEquals(Collections.singletonList(new HashSet<>(Arrays.asList("john", "9f6d2b1e"))), getProvider(0).users);
+    }
+
+    @Test
+    public void invalidatesOnlySignedProvidersOfUserPool() throws Exception {
+        // same user pool with another secret, and another user pool with the same secret
+        providers.add(new RecordingProvider(USER_POOL_ID, "another-secret"));
+        providers.add(new RecordingProvider("eu-west-1_other", SECRET));
+        providers.add(new RecordingProvider(USER_POOL_ID, SECRET));
+        Assert.assertEquals(202, postSigned(BODY));
+        Assert.assertEquals(1, getProvider(0).users.size());
+        Assert.assertTrue(getProvider(1).users.isEmpty());
+        Assert.assertTrue(getProvider(2).users.isEmpty());
+        Assert.assertEquals(1, getProvider(3).users.size());
+    }
+
+    @Test
+    public void rejectsEventOfAnotherUserPool() throws Exception {
+        Assert.assertEquals(403, postSigned(BODY.replace(USER_POOL_ID, "eu-west-1_other")));
+        Assert.assertTrue(getProvider(0).users.isEmpty());
+    }
+
+    @Test
+    public void rejectsInvalidJson() throws Exception {
+        Assert.assertEquals(400, postSigned("{\"events\":[]}"));
+        Assert.assertEquals(400, postSigned(BODY.replace("\"user\"", "\"role\"")));
+        Assert.assertTrue(getProvider(0).users.isEmpty());
+    }
+
+    @Test
+    public void rejectsMissingSignature() throws Exception {
+        Assert.assertEquals(400, post(BODY.getBytes(StandardCharsets.UTF_8), now(), ""));
+    }
+
+    @Test
+    public void acceptsUpperCaseSignature() throws Exception {
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        String timestamp = now();
+        Assert.assertEquals(202, post(body, timestamp, AwsCognitoRequestSignature.sign(SECRET, timestamp, body).toUpperCase()));
+    }
+
+    @Test
+    public void rejectsTamperedBody() throws Exception {
+        String timestamp = now();
+        String signature = AwsCognitoRequestSignature.sign(SECRET, timestamp, BODY.getBytes(StandardCharsets.UTF_8));
+        byte[] tampered = BODY.replace("john@example.com", "jane@example.com").getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(403, post(tampered, timestamp, signature));
+        Assert.assertTrue(getProvider(0).users.isEmpty());
+    }
+
+    @Test
+    public void rejectsEquivalentJsonWithDifferentBytes() throws Exception {
+        // the signature covers the bytes as sent, not the parsed event
+        String timestamp = now();
+        String signature = AwsCognitoRequestSignature.sign(SECRET, timestamp, BODY.getBytes(StandardCharsets.UTF_8));
+        byte[] reformatted = BODY.replace(",", ", ").getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(403, post(reformatted, timestamp, signature));
+    }
+
+    @Test
+    public void rejectsTamperedTimestamp() throws Exception {
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        String timestamp = now();
+        String signature = AwsCognitoRequestSignature.sign(SECRET, timestamp, body);
+        Assert.assertEquals(403, post(body, Long.toString(Long.parseLong(timestamp) - 1), signature));
+    }
+
+    @Test
+    public void rejectsWrongSecret() throws Exception {
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        String timestamp = now();
+        Assert.assertEquals(403, post(body, timestamp, AwsCognitoRequestSignature.sign("another-secret", timestamp, body)));
+    }
+
+    @Test
+    public void rejectsExpiredSignature() throws Exception {
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        String timestamp = Long.toString(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(10)));
+        Assert.assertEquals(400, post(body, timestamp, AwsCognitoRequestSignature.sign(SECRET, timestamp, body)));
+    }
+
+    @Test
+    public void rejectsOversizedBody() throws Exception {
+        byte[] body = new byte[AwsCognitoRequestSignature.MAX_BODY_SIZE + 1];
+        Arrays.fill(body, (byte) ' ');
+        String timestamp = now();
+        Assert.assertEquals(413, post(body, timestamp, AwsCognitoRequestSignature.sign(SECRET, timestamp, body)));
+    }
+
+    @Test
+    public void rejectsOversizedChunkedBody() throws Exception {
+        byte[] body = new byte[AwsCognitoRequestSignature.MAX_BODY_SIZE + 1];
+        Arrays.fill(body, (byte) ' ');
+        String timestamp = now();
+        Assert.assertEquals(413, post(body, timestamp, AwsCognitoRequestSignature.sign(SECRET, timestamp, body), true));
+    }
+
+    private static final class RecordingProvider extends AwsCognitoUserGroupProvider {
+        // filled by the server thread
+        private final List<Set<String>> users = new CopyOnWriteArrayList<>();
+        private final List<Set<String>> groups = new CopyOnWriteArrayList<>();
+
+        private RecordingProvider(String userPoolId, String secret) {
+            super(null, null);
+            setAwsCognitoConfiguration(getConfiguration(userPoolId, secret));
+        }
+
+        @Override
+        public void invalidate(Collection<String> users, Collection<String> groups) {
+            this.users.add(new HashSet<>(users));
+            this.groups.add(new HashSet<>(groups));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.jahia.community.aws.cognito.client;
+
+import org.jahia.community.aws.cognito.api.AwsCognitoConfiguration;
+import org.jahia.community.aws.cognito.api.AwsCognitoConstants;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.services.cognitoidentityprovider.model.CognitoIdentityProviderException;
+import software.amazon.awssdk.services.cognitoidentityprovider.model.GetGroupRequest;
+import software.amazon.awssdk.services.cognitoidentityprovider.model.GetGroupResponse;
+import software.amazon.awssdk.services.cognitoidentityprovider.model.GroupType;
+import software.amazon.awssdk.services.cognitoidentityprovider.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.cognitoidentityprovider.model.TooManyRequestsException;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+public class AwsCognitoClientServiceTest {
+    private List<StubCognitoClient> builtClients;
+    // error answered to the GetGroup requests, null to answer the group
+    private volatile Exception failure;
+    private AwsCognitoClientService clientService;
+
+    @Before
+    public void setUp() {
+        builtClients = new ArrayList<>();
+        clientService = new AwsCognitoClientService(awsCognitoConfiguration -> {
+            // each client answers with its build number as group description
+            String description = Integer.toString(builtClients.size());
+            StubCognitoClient client = new StubCognitoClient() {
+                @Override
+                public CompletableFuture<GetGroupResponse> getGroup(GetGroupRequest request) {
+                    if (failure != null) {
+                        CompletableFuture<GetGroupResponse> response = new CompletableFuture<>();
+                        response.completeExceptionally(failure);
+                        return response;
+                    }
+                    return CompletableFuture.completedFuture(GetGroupResponse.builder()
+                            .group(GroupType.builder().groupName(request.groupName()).description(description).build())
+                            .build());
+                }
+            };
+            builtClients.add(client);
+            return client;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        clientService.onDeactivate();
+    }
+
+    private static AwsCognitoConfiguration getConfiguration(String site, int apiCallTimeout) {
+        Map<String, Object> props = new HashMap<>();
+        props.put(AwsCognitoConstants.TARGET_SITE, site);
+        props.put(AwsCognitoConstants.ACCESS_KEY_ID, "access-key");
+        props.put(AwsCognitoConstants.SECRET_ACCESS_KEY, "secret-key");
+        props.put(AwsCognitoConstants.USER_POOL_ID, "eu-west-1_pool");
+        props.put(AwsCognitoConstants.API_CALL_TIMEOUT, Integer.toString(apiCallTimeout));
+        return new AwsCognitoConfiguration(props);
+    }
+
+    private String getClientNumber(AwsCognitoConfiguration awsCognitoConfiguration) {
+        return clientService.getGroup(awsCognitoConfiguration, "editors").map(AwsCognitoGroup::getDescription).orElse(null);
+    }
+
+    @Test
+    public void sharesClientOfSameUserPool() {
+        AwsCognitoConfiguration site1 = getConfiguration("site1", 10000);
+        AwsCognitoConfiguration site2 = getConfiguration("site2", 10000);
+        clientService.register(site1);
+        clientService.register(site2);
+        Assert.assertEquals(1, builtClients.size());
+
+        clientService.unregister(site1);
+        Assert.assertFalse(builtClients.get(0).isClosed());
+        Assert.assertEquals("0", getClientNumber(site2));
+        clientService.unregister(site2);
+        Assert.assertTrue(builtClients.get(0).isClosed());
+    }
+
+    @Test
+    public void replacesClientWhenTuningChanges() {
+        AwsCognitoConfiguration site1 = getConfiguration("site1", 10000);
+        AwsCognitoConfiguration site2 = getConfiguration("site2", 10000);
+        AwsCognitoConfiguration updatedSite1 = getConfiguration("site1", 20000);
+        clientService.register(site1);
+        clientService.register(site2);
+        clientService.register(updatedSite1);
+        clientService.unregister(site1);
+        Assert.assertEquals(2, builtClients.size());
+
+        // the configurations of both tunings are served by the new client, the replaced one is closed with its last configuration
+        Assert.assertEquals("1", getClientNumber(site2));
+        Assert.assertEquals("1", getClientNumber(updatedSite1));
+        Assert.assertFalse(builtClients.get(0).isClosed());
+        clientService.unregister(site2);
+        Assert.assertTrue(builtClients.get(0).isClosed());
+        Assert.assertFalse(builtClients.get(1).isClosed());
+        clientService.unregister(updatedSite1);
+        Assert.assertTrue(builtClients.get(1).isClosed());
+    }
+
+    @Test
+    public void failsForUnregisteredUserPool() {
+        AwsCognitoConfiguration site1 = getConfiguration("site1", 10000);
+        Assert.assertThrows(AwsCognitoUnavailableException.class, () -> clientService.getGroup(site1, "editors"));
+        Assert.assertTrue(clientService.getRates(site1).isEmpty());
+        Assert.assertTrue(builtClients.isEmpty());
+    }
+
+    @Test
+    public void lowersRateWhenThrottled() {
+        AwsCognitoConfiguration site1 = getConfiguration("site1", 10000);
+        clientService.register(site1);
+        double rate = clientService.getRates(site1).get(AwsCognitoQuotaCategory.USER_RESOURCE_READ);
+
+        failure = TooManyRequestsException.builder().message("Rate exceeded").statusCode(429).build();
+        // a throttled read is not an unknown group, the caller must not cache it as missing
+        Assert.assertThrows(AwsCognitoThrottlingException.class, () -> clientService.getGroup(site1, "editors"));
+        Assert.assertEquals(rate / 2, clientService.getRates(site1).get(AwsCognitoQuotaCategory.USER_RESOURCE_READ), 0.001);
+    }
+
+    @Test
+    public void splitsRatesBetweenClusterNodes() {
+        AwsCognitoConfiguration site1 = getConfiguration("site1", 10000);
+        clientService.register(site1);
+        double rate = clientService.getRates(site1).get(AwsCognitoQuotaCategory.USER_LIST);
+
+        clientService.setClusterSize(2);
+        Assert.assertEquals(rate / 2, clientService.getRates(site1).get(AwsCognitoQuotaCategory.USER_LIST), 0.001);
+        // a client built afterwards gets the same share
+        clientService.register(getConfiguration("site1", 20000));
+        Assert.assertEquals(rate / 2, clientService.getRates(site1).get(AwsCognitoQuotaCategory.USER_LIST), 0.001);
+        clientService.setClusterSize(1);
+        Assert.assertEquals(rate, clientService.getRates(site1).get(AwsCognitoQuotaCategory.USER_LIST), 0.001);
+    }
+
+    @Test
+    public void publishesRatesOverJmx() throws Exception {
+        AwsCognitoConfiguration site1 = getConfiguration("site1", 10000);
+        clientService.register(site1);
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName("org.jahia.community.aws.cognito:type=RateLimiter,userPool=\"eu-west-1_pool\",category=USER_LIST,*");
+        Set<ObjectName> names = mBeanServer.queryNames(pattern, null);
+        Assert.assertEquals(1, names.size());
+        double rate = clientService.getRates(site1).get(AwsCognitoQuotaCategory.USER_LIST);
+        Assert.assertEquals(rate, (Double) mBeanServer.getAttribute(names.iterator().next(), "Rate"), 0.001);
+
+        clientService.unregister(site1);
+        Assert.assertTrue(mBeanServer.queryNames(pattern, null).isEmpty());
+    }
+
+    @Test
+    public void answersMissingGroupWithEmptyResult() {
+        AwsCognitoConfiguration site1 = getConfiguration("site1", 10000);
+        clientService.register(site1);
+
+        failure = ResourceNotFoundException.builder().message("Group not found").statusCode(400).build();
+        Assert.assertFalse(clientService.getGroup(site1, "editors").isPresent());
+    }
+
+    @Test
+    public void failsWhenAwsCognitoFails() {
+        AwsCognitoConfiguration site1 = getConfiguration("site1", 10000);
+        clientService.register(site1);
+
+        // neither an error of AWS Cognito nor a timeout tells that the group does not exist
+        failure = CognitoIdentityProviderException.builder().message("Internal error").statusCode(500).build();
+        Assert.assertThrows(AwsCognitoUnavailableException.class, () -> clientService.getGroup(site1, "editors"));
+        failure = ApiCallAttemptTimeoutException.create(3000);
+        Assert.assertThrows(AwsCognitoUnavailableException.class, () -> clientService.getGroup(site1, "editors"));
+    }
+}
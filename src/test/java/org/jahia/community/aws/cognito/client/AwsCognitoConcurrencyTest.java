@@ -0,0 +1,159 @@
+package org.jahia.community.aws.cognito.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jahia.community.aws.cognito.api.AwsCognitoConfiguration;
+import org.jahia.community.aws.cognito.api.AwsCognitoConstants;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sends concurrent reads through the Netty client of each user pool to a local server answering slowly.
+ */
+public class AwsCognitoConcurrencyTest {
+    private static final Pattern USER_POOL_ID = Pattern.compile("\"UserPoolId\"\\s*:\\s*\"([^\"]+)\"");
+    private static final long RESPONSE_DELAY = 200;
+    private static final long SLOW_RESPONSE_DELAY = 2000;
+    private static final String SLOW_USER_POOL_ID = "eu-west-1_slow";
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private SdkEventLoopGroup eventLoopGroup;
+    private AwsCognitoClientService clientService;
+    // user pool -> requests being answered, and the most answered at the same time
+    private final ConcurrentMap<String, AtomicInteger> inFlightRequests = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> maxInFlightRequests = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws IOException {
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::answer);
+        server.setExecutor(serverExecutor);
+        server.start();
+        URI endpoint = URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort());
+        eventLoopGroup = SdkEventLoopGroup.builder().build();
+        clientService = new AwsCognitoClientService(awsCognitoConfiguration -> AwsCognitoClientService.clientBuilder(awsCognitoConfiguration, eventLoopGroup)
+                .endpointOverride(endpoint)
+                .build());
+    }
+
+    @After
+    public void tearDown() {
+        clientService.onDeactivate();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        eventLoopGroup.eventLoopGroup().shutdownGracefully();
+    }
+
+    private void answer(HttpExchange exchange) throws IOException {
+        String body = read(exchange.getRequestBody());
+        Matcher matcher = USER_POOL_ID.matcher(body);
+        String userPoolId = matcher.find() ? matcher.group(1) : "";
+        AtomicInteger inFlight = inFlightRequests.computeIfAbsent(userPoolId, key -> new AtomicInteger());
+        maxInFlightRequests.computeIfAbsent(userPoolId, key -> new AtomicInteger()).accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(SLOW_USER_POOL_ID.equals(userPoolId) ? SLOW_RESPONSE_DELAY : RESPONSE_DELAY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        byte[] response = ("{\"Group\":{\"GroupName\":\"editors\",\"UserPoolId\":\"" + userPoolId + "\"}}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/x-amz-json-1.1");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(response);
+        }
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static AwsCognitoConfiguration getConfiguration(String userPoolId, int maxConcurrentRequests) {
+        Map<String, Object> props = new HashMap<>();
+        props.put(AwsCognitoConstants.ACCESS_KEY_ID, "access-key");
+        props.put(AwsCognitoConstants.SECRET_ACCESS_KEY, "secret-key");
+        props.put(AwsCognitoConstants.USER_POOL_ID, userPoolId);
+        props.put(AwsCognitoConstants.MAX_CONCURRENT_REQUESTS, Integer.toString(maxConcurrentRequests));
+        props.put(AwsCognitoConstants.API_CALL_ATTEMPT_TIMEOUT, "10000");
+        return new AwsCognitoConfiguration(props);
+    }
+
+    /**
+     * @return the time taken to read the group the given number of times at once, in milliseconds
+     */
+    private long readConcurrently(AwsCognitoConfiguration awsCognitoConfiguration, int requests) {
+        long start = System.nanoTime();
+        List<CompletableFuture<?>> reads = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            reads.add(clientService.getGroupAsync(awsCognitoConfiguration, "editors").thenAccept(group -> Assert.assertTrue(group.isPresent())));
+        }
+        CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).join();
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Test
+    public void throughputScalesWithPermits() {
+        AwsCognitoConfiguration onePermit = getConfiguration("eu-west-1_one", 1);
+        AwsCognitoConfiguration fourPermits = getConfiguration("eu-west-1_four", 4);
+        clientService.register(onePermit);
+        clientService.register(fourPermits);
+
+        long onePermitDuration = readConcurrently(onePermit, 8);
+        long fourPermitsDuration = readConcurrently(fourPermits, 8);
+        Assert.assertEquals(1, maxInFlightRequests.get("eu-west-1_one").get());
+        Assert.assertEquals(4, maxInFlightRequests.get("eu-west-1_four").get());
+        // 8 sequential responses against 2 rounds of 4
+        Assert.assertTrue(onePermitDuration >= 8 * RESPONSE_DELAY);
+        Assert.assertTrue("4 permits took " + fourPermitsDuration + " ms, 1 permit " + onePermitDuration + " ms", fourPermitsDuration * 2 < onePermitDuration);
+    }
+
+    @Test
+    public void slowUserPoolDoesNotStallOthers() {
+        AwsCognitoConfiguration slow = getConfiguration(SLOW_USER_POOL_ID, 1);
+        AwsCognitoConfiguration fast = getConfiguration("eu-west-1_fast", 1);
+        clientService.register(slow);
+        clientService.register(fast);
+
+        List<CompletableFuture<?>> slowReads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            slowReads.add(clientService.getGroupAsync(slow, "editors"));
+        }
+        long fastDuration = readConcurrently(fast, 1);
+        Assert.assertTrue("the fast user pool took " + fastDuration + " ms", fastDuration < SLOW_RESPONSE_DELAY);
+        Assert.assertTrue(slowReads.stream().anyMatch(read -> !read.isDone()));
+    }
+}
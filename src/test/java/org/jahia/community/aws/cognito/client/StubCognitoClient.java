@@ -0,0 +1,25 @@
+package org.jahia.community.aws.cognito.client;
+
+import software.amazon.awssdk.services.cognitoidentityprovider.CognitoIdentityProviderAsyncClient;
+
+/**
+ * SDK client answering without AWS Cognito: every request not overridden fails with an
+ * {@link UnsupportedOperationException}.
+ */
+class StubCognitoClient implements CognitoIdentityProviderAsyncClient {
+    private volatile boolean closed;
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+}
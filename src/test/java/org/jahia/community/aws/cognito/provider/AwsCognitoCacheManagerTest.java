@@ -0,0 +1,208 @@
+package org.jahia.community.aws.cognito.provider;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+import net.sf.ehcache.event.NotificationScope;
+import org.jahia.community.aws.cognito.api.AwsCognitoConfiguration;
+import org.jahia.community.aws.cognito.api.AwsCognitoConstants;
+import org.jahia.community.aws.cognito.client.AwsCognitoClientService;
+import org.jahia.community.aws.cognito.client.AwsCognitoUnavailableException;
+import org.jahia.community.aws.cognito.client.AwsCognitoUser;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs two cluster nodes in the same JVM, their caches replicated to each other synchronously,
+ * and counts the loads sent to AWS Cognito.
+ */
+public class AwsCognitoCacheManagerTest {
+    private static final String PROVIDER_KEY = "aws-cognito";
+    private static final String SITE_KEY = "site1";
+    private static final String SUB = "9f6d2b1e-0c4a-4e2b-9d1f-3a7c5e8b2f10";
+    private static final String EMAIL = "john@example.com";
+
+    private CacheManager cacheManager1;
+    private CacheManager cacheManager2;
+    private AwsCognitoCacheManager node1;
+    private AwsCognitoCacheManager node2;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        cacheManager1 = CacheManager.newInstance(new Configuration().name("node1"));
+        cacheManager2 = CacheManager.newInstance(new Configuration().name("node2"));
+        node1 = activate(cacheManager1);
+        node2 = activate(cacheManager2);
+        replicate(cacheManager1, cacheManager2);
+        replicate(cacheManager2, cacheManager1);
+    }
+
+    @After
+    public void tearDown() {
+        node1.onDeactivate();
+        node2.onDeactivate();
+        cacheManager1.shutdown();
+        cacheManager2.shutdown();
+    }
+
+    private static AwsCognitoCacheManager activate(CacheManager cacheManager) {
+        AwsCognitoCacheManager awsCognitoCacheManager = new AwsCognitoCacheManager();
+        awsCognitoCacheManager.setAwsCognitoClientService(new AwsCognitoClientService());
+        awsCognitoCacheManager.onActivate(cacheManager);
+        return awsCognitoCacheManager;
+    }
+
+    /**
+     * Copies the puts and removals made on one node to the other, like the cache replicator of a cluster.
+     */
+    private static void replicate(CacheManager source, CacheManager target) {
+        for (String cacheName : source.getCacheNames()) {
+            Ehcache targetCache = target.getEhcache(cacheName);
+            source.getEhcache(cacheName).getCacheEventNotificationService().registerListener(new CacheEventListenerAdapter() {
+                @Override
+                public void notifyElementPut(Ehcache cache, Element element) {
+                    Element copy = new Element(element.getObjectKey(), element.getObjectValue());
+                    copy.setTimeToLive(element.getTimeToLive());
+                    targetCache.put(copy, true);
+                }
+
+                @Override
+                public void notifyElementUpdated(Ehcache cache, Element element) {
+                    notifyElementPut(cache, element);
+                }
+
+                @Override
+                public void notifyElementRemoved(Ehcache cache, Element element) {
+                    targetCache.remove(element.getObjectKey(), true);
+                }
+            }, NotificationScope.LOCAL);
+        }
+    }
+
+    private Supplier<CompletableFuture<Optional<AwsCognitoUser>>> count(CompletableFuture<Optional<AwsCognitoUser>> response) {
+        return () -> {
+            calls.incrementAndGet();
+            return response;
+        };
+    }
+
+    private static AwsCognitoUser getUser() {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put(AwsCognitoConstants.SSO_LOGIN, SUB);
+        attributes.put(AwsCognitoConstants.CUSTOM_PROPERTY_EMAIL, EMAIL);
+        return new AwsCognitoUser(SUB, attributes);
+    }
+
+    @Test
+    public void servesEmailLookupsFromCache() {
+        Supplier<Optional<AwsCognitoUser>> supplier = () -> {
+            calls.incrementAndGet();
+            return Optional.of(getUser());
+        };
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(SUB, node1.getOrRefreshUser(PROVIDER_KEY, SITE_KEY, EMAIL, supplier).map(AwsCognitoUser::getUsername).orElse(null));
+        }
+        Assert.assertEquals(SUB, node1.getOrRefreshUser(PROVIDER_KEY, SITE_KEY, SUB, supplier).map(AwsCognitoUser::getUsername).orElse(null));
+        Assert.assertEquals(1, calls.get());
+        // the alias is indexed from the replicated entry too
+        Assert.assertEquals(SUB, node2.getOrRefreshUser(PROVIDER_KEY, SITE_KEY, EMAIL, supplier).map(AwsCognitoUser::getUsername).orElse(null));
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void servesUnknownPrincipalsFromNegativeCache() {
+        Supplier<Optional<AwsCognitoUser>> supplier = () -> {
+            calls.incrementAndGet();
+            return Optional.empty();
+        };
+        for (int i = 0; i < 5; i++) {
+            Assert.assertFalse(node1.getOrRefreshUser(PROVIDER_KEY, SITE_KEY, EMAIL, supplier).isPresent());
+        }
+        Assert.assertEquals(1, calls.get());
+
+        // a user created in AWS Cognito is found once it is cached
+        node1.cacheUser(PROVIDER_KEY, SITE_KEY, getUser());
+        Assert.assertTrue(node1.getOrRefreshUser(PROVIDER_KEY, SITE_KEY, EMAIL, supplier).isPresent());
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void waitsForLoadOfOtherNode() throws Exception {
+        CompletableFuture<Optional<AwsCognitoUser>> response = new CompletableFuture<>();
+        CompletableFuture<Optional<AwsCognitoUser>> load1 = node1.getOrRefreshUserAsync(PROVIDER_KEY, SITE_KEY, SUB, count(response));
+        CompletableFuture<Optional<AwsCognitoUser>> load2 = node2.getOrRefreshUserAsync(PROVIDER_KEY, SITE_KEY, SUB, count(response));
+        response.complete(Optional.of(getUser()));
+
+        Assert.assertEquals(SUB, load1.get(5, TimeUnit.SECONDS).map(AwsCognitoUser::getUsername).orElse(null));
+        Assert.assertEquals(SUB, load2.get(5, TimeUnit.SECONDS).map(AwsCognitoUser::getUsername).orElse(null));
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(1, node2.getLeasedLoads());
+    }
+
+    @Test
+    public void waitsForUnknownPrincipalOfOtherNode() throws Exception {
+        CompletableFuture<Optional<AwsCognitoUser>> response = new CompletableFuture<>();
+        CompletableFuture<Optional<AwsCognitoUser>> load1 = node1.getOrRefreshUserAsync(PROVIDER_KEY, SITE_KEY, SUB, count(response));
+        CompletableFuture<Optional<AwsCognitoUser>> load2 = node2.getOrRefreshUserAsync(PROVIDER_KEY, SITE_KEY, SUB, count(response));
+        response.complete(Optional.empty());
+
+        Assert.assertFalse(load1.get(5, TimeUnit.SECONDS).isPresent());
+        Assert.assertFalse(load2.get(5, TimeUnit.SECONDS).isPresent());
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void loadsWhenOtherNodeFails() throws Exception {
+        CompletableFuture<Optional<AwsCognitoUser>> failure = new CompletableFuture<>();
+        CompletableFuture<Optional<AwsCognitoUser>> load1 = node1.getOrRefreshUserAsync(PROVIDER_KEY, SITE_KEY, SUB, count(failure));
+        CompletableFuture<Optional<AwsCognitoUser>> load2 = node2.getOrRefreshUserAsync(PROVIDER_KEY, SITE_KEY, SUB, count(CompletableFuture.completedFuture(Optional.of(getUser()))));
+        failure.completeExceptionally(new AwsCognitoUnavailableException("AWS Cognito is unavailable"));
+
+        Assert.assertTrue(load1.handle((user, error) -> error != null).get(5, TimeUnit.SECONDS));
+        // the lease is released with the failed load, the waiting node loads the principal itself
+        Assert.assertEquals(SUB, load2.get(5, TimeUnit.SECONDS).map(AwsCognitoUser::getUsername).orElse(null));
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void servesExpiredEntryWhenAwsCognitoFails() throws Exception {
+        Map<String, Object> props = new HashMap<>();
+        props.put(AwsCognitoConstants.USER_POOL_ID, "eu-west-1_pool");
+        props.put(AwsCognitoConstants.CACHE_HARD_TTL, "1");
+        node1.register(PROVIDER_KEY, new AwsCognitoConfiguration(props));
+        node1.cacheUser(PROVIDER_KEY, SITE_KEY, getUser());
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1) + 100);
+
+        // a 5xx or a timeout of AWS Cognito reaches the cache manager as an unavailable AWS Cognito
+        Supplier<Optional<AwsCognitoUser>> failing = () -> {
+            calls.incrementAndGet();
+            throw new AwsCognitoUnavailableException("AWS Cognito failed a USER_LIST request");
+        };
+        for (int i = 1; i <= 2; i++) {
+            // the expired entry is kept for the next failure
+            Assert.assertEquals(SUB, node1.getOrRefreshUser(PROVIDER_KEY, SITE_KEY, SUB, failing).map(AwsCognitoUser::getUsername).orElse(null));
+            Assert.assertEquals(i, calls.get());
+        }
+
+        // the user is not recorded as unknown, the next lookup reads it again
+        Supplier<Optional<AwsCognitoUser>> supplier = () -> {
+            calls.incrementAndGet();
+            return Optional.of(getUser());
+        };
+        Assert.assertEquals(SUB, node1.getOrRefreshUser(PROVIDER_KEY, SITE_KEY, SUB, supplier).map(AwsCognitoUser::getUsername).orElse(null));
+        Assert.assertEquals(3, calls.get());
+    }
+}
@@ -0,0 +1,40 @@
+package org.jahia.community.aws.cognito.provider;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Properties;
+
+/**
+ * Checks which user searches are filtered by the ListUsers requests of AWS Cognito without synchronization.
+ */
+public class AwsCognitoUserGroupProviderTest {
+    private static Properties getSearchCriteria(String... criteria) {
+        Properties searchCriteria = new Properties();
+        for (int i = 0; i < criteria.length; i += 2) {
+            searchCriteria.setProperty(criteria[i], criteria[i + 1]);
+        }
+        return searchCriteria;
+    }
+
+    @Test
+    public void searchesUsernamePrefixOnAwsCognitoUsername() {
+        // unlike an exact username, looked up by sub
+        Assert.assertEquals("username", AwsCognitoUserGroupProvider.getPrefixSearchAttribute(getSearchCriteria("username", "jo*")));
+        Assert.assertEquals("username", AwsCognitoUserGroupProvider.getPrefixSearchAttribute(getSearchCriteria("*", "jo*")));
+        Assert.assertNull(AwsCognitoUserGroupProvider.getPrefixSearchAttribute(getSearchCriteria("username", "9f6d2b1e-0c4a-4e2b-9d1f-3a7c5e8b2f10")));
+    }
+
+    @Test
+    public void searchesPrefixOfMappedAttribute() {
+        Assert.assertEquals("email", AwsCognitoUserGroupProvider.getPrefixSearchAttribute(getSearchCriteria("j:email", "jo*")));
+        Assert.assertEquals("family_name", AwsCognitoUserGroupProvider.getPrefixSearchAttribute(getSearchCriteria("j:lastName", "Do*", "multi_criteria_search_op", "and")));
+    }
+
+    @Test
+    public void doesNotFilterOtherSearches() {
+        Assert.assertNull(AwsCognitoUserGroupProvider.getPrefixSearchAttribute(getSearchCriteria("j:lastName", "*Do*")));
+        Assert.assertNull(AwsCognitoUserGroupProvider.getPrefixSearchAttribute(getSearchCriteria("j:organization", "Ja*")));
+        Assert.assertNull(AwsCognitoUserGroupProvider.getPrefixSearchAttribute(getSearchCriteria("j:firstName", "Jo*", "j:lastName", "Do*")));
+    }
+}